@@ -0,0 +1,82 @@
+package benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Synthetic candle files for the benchmarks: ascending one minute timestamps, consistent OHLC prices with two decimals
+ * and integer volumes, so the same file passes every rule. Files are generated once per row count into
+ * build/jmh-data (or the candle-validation.jmh.data_dir system property) and reused by later runs.
+ */
+public final class CandleFiles {
+
+    private static final long START_TIMESTAMP = 1577956500000L;
+    private static final long INTERVAL_MILLIS = 60000L;
+
+    private CandleFiles() {
+    }
+
+    public static File get(int rows) throws IOException {
+        Path dir = Path.of(System.getProperty("candle-validation.jmh.data_dir", "build/jmh-data"));
+        Path file = dir.resolve("candles_" + rows + ".csv");
+        if (Files.exists(file) && Files.size(file) > 0) {
+            return file.toFile();
+        }
+        Files.createDirectories(dir);
+        Path tempFile = Files.createTempFile(dir, "candles_" + rows, ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            write(writer, rows);
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return file.toFile();
+    }
+
+    /**
+     * Application properties with the expected row count and rules of the benchmark.
+     */
+    public static Properties properties(int rows, String rules, String parser) throws IOException {
+        Properties appProps = new Properties();
+        try (InputStream inputStream = CandleFiles.class.getResourceAsStream("/application.properties")) {
+            appProps.load(inputStream);
+        }
+        appProps.setProperty("candle-validation.count_number_to_validate", String.valueOf(rows));
+        appProps.setProperty("candle-validation.rules", rules);
+        appProps.setProperty("candle-validation.parser", parser);
+        return appProps;
+    }
+
+    private static void write(BufferedWriter writer, int rows) throws IOException {
+        Random random = new Random(rows);
+        long close = 10000;
+        StringBuilder line = new StringBuilder(64);
+        for (int i = 0; i < rows; i++) {
+            long open = close;
+            close = Math.max(100, open + random.nextInt(41) - 20);
+            long high = Math.max(open, close) + random.nextInt(10);
+            long low = Math.max(1, Math.min(open, close) - random.nextInt(10));
+            line.setLength(0);
+            line.append(START_TIMESTAMP + i * INTERVAL_MILLIS).append(',');
+            appendPrice(line, open).append(',');
+            appendPrice(line, high).append(',');
+            appendPrice(line, low).append(',');
+            appendPrice(line, close).append(',');
+            line.append(1 + random.nextInt(100000));
+            writer.append(line);
+            writer.newLine();
+        }
+    }
+
+    //price in cents as a decimal with two digits
+    private static StringBuilder appendPrice(StringBuilder line, long cents) {
+        long fraction = cents % 100;
+        return line.append(cents / 100).append('.').append(fraction < 10 ? "0" : "").append(fraction);
+    }
+}
@@ -0,0 +1,63 @@
+package benchmark;
+
+import com.opencsv.exceptions.CsvException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import service.ParseCsvService;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The list based checks: OpenCSV readAll, then checkSize and checkDescending over the records.
+ * The whole file is kept as String[] rows, so 10M rows need a large heap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g", "-Dlog4j.configuration=log4j-jmh.properties"})
+public class LegacyParseBenchmark {
+
+    @Param({"375", "100000", "10000000"})
+    private int rows;
+
+    private File file;
+    private ParseCsvService parseCsvService;
+    private List<String[]> records;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, CsvException {
+        file = CandleFiles.get(rows);
+        parseCsvService = new ParseCsvService(CandleFiles.properties(rows, "", "opencsv"), "candles_" + rows, ".csv", "benchmark");
+        records = parseCsvService.getRecords(file);
+    }
+
+    @Benchmark
+    public List<String[]> getRecords() throws IOException, CsvException {
+        return parseCsvService.getRecords(file);
+    }
+
+    @Benchmark
+    public boolean checkSize() throws Exception {
+        return parseCsvService.checkSize(records);
+    }
+
+    @Benchmark
+    public boolean checkDescending() throws Exception {
+        return parseCsvService.checkDescending(records);
+    }
+}
@@ -0,0 +1,108 @@
+package benchmark;
+
+import model.ValidationResult;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import parser.ByteCandleReader;
+import parser.CandleCursor;
+import service.ParseCsvService;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single pass validation (count, order and the configured rules) of a synthetic file.
+ * The "rows" counter is reported as rows/s, bytes per row is gc.alloc.rate.norm of -prof gc divided by rows.
+ * Rules are off by default, e.g. -p rules=ohlc,volume,interval,spike measures them too.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-jmh.properties")
+public class ParseBenchmark {
+
+    @Param({"375", "100000", "10000000"})
+    private int rows;
+
+    @Param({""})
+    private String rules;
+
+    private File file;
+    private byte[] content;
+    private ParseCsvService parseCsvService;
+    private ParseCsvService openCsvService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = CandleFiles.get(rows);
+        content = Files.readAllBytes(file.toPath());
+        parseCsvService = new ParseCsvService(CandleFiles.properties(rows, rules, "bytes"), "candles_" + rows, ".csv", "benchmark");
+        openCsvService = new ParseCsvService(CandleFiles.properties(rows, rules, "opencsv"), "candles_" + rows, ".csv", "benchmark");
+    }
+
+    @Benchmark
+    public ValidationResult tempFile(RowCounter counter) throws IOException {
+        return counter.count(parseCsvService.validate(file));
+    }
+
+    @Benchmark
+    public ValidationResult inMemory(RowCounter counter) throws IOException {
+        return counter.count(parseCsvService.validate(new ByteArrayInputStream(content)));
+    }
+
+    @Benchmark
+    public ValidationResult mapped(RowCounter counter) throws IOException {
+        return counter.count(parseCsvService.validateMapped(file));
+    }
+
+    @Benchmark
+    public ValidationResult openCsv(RowCounter counter) throws IOException {
+        return counter.count(openCsvService.validate(file));
+    }
+
+    //parsing only, without order and rule checks
+    @Benchmark
+    public long countRows(RowCounter counter) throws IOException {
+        long count = 0;
+        CandleCursor cursor = new CandleCursor();
+        try (ByteCandleReader reader = new ByteCandleReader(new ByteArrayInputStream(content))) {
+            while (reader.next(cursor)) {
+                count++;
+            }
+        }
+        counter.rows += count;
+        return count;
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class RowCounter {
+        public long rows;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            rows = 0;
+        }
+
+        private ValidationResult count(ValidationResult result) {
+            rows += result.getRowCount();
+            return result;
+        }
+    }
+}
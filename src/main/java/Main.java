@@ -1,11 +1,21 @@
 
-import exceptions.ValidationException;
 import lombok.extern.apachecommons.CommonsLog;
+import metrics.Gauge;
+import metrics.MetricsRegistry;
 import org.apache.commons.text.StringSubstitutor;
 import org.apache.log4j.PropertyConfigurator;
+import rules.CandleRuleFactory;
+import service.BaselineStore;
+import service.BatchValidationService;
 import service.CloudStorageClient;
-import service.ParseCsvService;
+import service.DaemonService;
+import service.ReportBundleWriter;
+import service.TaskExecutors;
 import service.TimeService;
+import service.TokenStateStore;
+import service.TokenValidationService;
+import service.ValidationIndex;
+import service.WatchService;
 import service.WebhookClient;
 
 import java.io.File;
@@ -24,45 +34,154 @@ public class Main {
 
     public static void main(String[] args) {
 
+        addShutdownHook();
         try {
             Properties appProps = loadProperties();
-            WebhookClient webhookClient = new WebhookClient(appProps);
+            boolean force = Arrays.asList(args).contains("--force");
+            if (isDaemonMode(appProps, args)) {
+                new DaemonService(Main::loadProperties, new File(PROPS_PATH + "application.properties"))
+                        .run(props -> new ScheduledValidation(props, force), appProps);
+                return;
+            }
+            MetricsRegistry metricsRegistry = new MetricsRegistry(appProps);
+            long start = System.nanoTime();
+            try (TaskExecutors taskExecutors = new TaskExecutors(appProps);
+                 WebhookClient webhookClient = new WebhookClient(appProps, metricsRegistry)) {
+                CloudStorageClient cloudStorageClient = new CloudStorageClient(appProps, getFileExtension(appProps), taskExecutors, metricsRegistry);
+                validate(appProps, cloudStorageClient, webhookClient, taskExecutors, metricsRegistry, force);
+            } finally {
+                writeMetrics(metricsRegistry, start);
+            }
+        } catch (Exception e) {
+            log.error(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    //SIGTERM interrupts the main thread and waits for it, so every mode saves its state and sends queued messages
+    private static void addShutdownHook() {
+        Thread mainThread = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            mainThread.interrupt();
+            try {
+                mainThread.join(60000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "shutdown"));
+    }
 
-            String token = getToken(appProps);
-            log.info("Token = " + token);
+    private static void writeMetrics(MetricsRegistry metricsRegistry, long startNanos) throws IOException {
+        metricsRegistry.gauge("candle_validation_run_seconds", "Duration of the whole run").set((System.nanoTime() - startNanos) / 1e9);
+        metricsRegistry.gauge("candle_validation_last_run_timestamp_seconds", "End of the last run").set(System.currentTimeMillis() / 1000d);
+        metricsRegistry.write();
+    }
 
-            TimeService timeService = new TimeService(appProps);
-            String fileName = timeService.getLocalDateTimeInMillis();
+    private static void validate(Properties appProps, CloudStorageClient cloudStorageClient, WebhookClient webhookClient,
+                                 TaskExecutors taskExecutors, MetricsRegistry metricsRegistry, boolean force) throws Exception {
 
-            String fileExtension = getFileExtension(appProps);
-            log.info("FileExtension = " + fileExtension);
+        TimeService timeService = new TimeService(appProps);
+        String fileName = timeService.getLocalDateTimeInMillis();
 
-            CloudStorageClient cloudStorageClient = new CloudStorageClient(appProps, fileExtension, token);
-            ParseCsvService parseCsvService = new ParseCsvService(appProps, fileName, fileExtension, token);
+        String fileExtension = getFileExtension(appProps);
+        log.info("FileExtension = " + fileExtension);
 
-            boolean isFileExisted;
+        cloudStorageClient.clearObjectCache();
+        CandleRuleFactory ruleFactory = new CandleRuleFactory(appProps, timeService);
+        ValidationIndex validationIndex = new ValidationIndex(appProps, force);
+        TokenStateStore tokenStateStore = new TokenStateStore(appProps, timeService);
+        BaselineStore baselineStore = new BaselineStore(appProps);
 
+        long stageStart = System.nanoTime();
+        try (ReportBundleWriter reportBundleWriter = new ReportBundleWriter(appProps, cloudStorageClient, metricsRegistry)) {
+            TokenValidationService tokenValidationService = new TokenValidationService(appProps, cloudStorageClient, webhookClient, ruleFactory, validationIndex, tokenStateStore, baselineStore, reportBundleWriter, taskExecutors, metricsRegistry, fileName, fileExtension);
+            if (isBatchMode(appProps)) {
+                new BatchValidationService(appProps, cloudStorageClient, tokenValidationService, taskExecutors).validateAll();
+            } else if (isRangeMode(appProps)) {
+                new BatchValidationService(appProps, cloudStorageClient, tokenValidationService, taskExecutors).validateRange(timeService.getRangeTradingDays());
+            } else if (isWatchMode(appProps)) {
+                BatchValidationService batchValidationService = new BatchValidationService(appProps, cloudStorageClient, tokenValidationService, taskExecutors);
+                new WatchService(appProps, cloudStorageClient, tokenValidationService, batchValidationService, timeService, taskExecutors).run();
+            } else if (isLocalMode(appProps)) {
+                String token = getToken(appProps);
+                for (File file : getLocalFiles(appProps)) {
+                    log.info("Validation result = " + tokenValidationService.validateLocal(token, file));
+                }
+            } else {
+                String token = getToken(appProps);
+                log.info("Validation result = " + tokenValidationService.validate(token));
+            }
+            stageStart = recordStage(metricsRegistry, "validation", stageStart);
+        } finally {
+            //the last report bundle is uploaded, the rest were uploaded in the background during the validation
+            stageStart = recordStage(metricsRegistry, "bundle_upload", stageStart);
+            //saved after a failed or interrupted run too, so the files validated before aren't validated again
             try {
-                isFileExisted = cloudStorageClient.isFileExisted(fileName);
-                if (isFileExisted) {
-                    File file = cloudStorageClient.downloadFile(fileName);
-                    log.info("File is downloaded = " + file.exists());
-                    List<String[]> allData = parseCsvService.getRecords(file);
-                    log.info("All records are downloaded = " + (allData != null ? allData.size() : null));
-                    log.info("Size is equal to required = " + parseCsvService.checkSize(allData));
-                    log.info("Records are in descending order = " + parseCsvService.checkDescending(allData));
-                    throw new ValidationException("File for token " + token + " checked successfully");
+                validationIndex.save();
+            } finally {
+                try {
+                    tokenStateStore.close();
+                } finally {
+                    baselineStore.close();
                 }
-            } catch (ValidationException ex) {
-                webhookClient.sendMessageToSlack(ex.getMessage());
             }
-            //upload report to AWS
-            cloudStorageClient.uploadReportLogToAws(timeService.getLogFileName());
-            cloudStorageClient.deleteTempFile();
-        } catch (Exception e) {
-            log.error(e.getMessage());
-            e.printStackTrace();
         }
+        stageStart = recordStage(metricsRegistry, "index_save", stageStart);
+        //flush slack messages, so they get into the report
+        webhookClient.flush();
+        stageStart = recordStage(metricsRegistry, "slack_flush", stageStart);
+        //upload report to AWS
+        cloudStorageClient.uploadReportLogToAws(timeService.getLogFileName());
+        recordStage(metricsRegistry, "report_upload", stageStart);
+        cloudStorageClient.deleteTempDir();
+    }
+
+    //sets the duration of the stage and returns the start of the next one
+    private static long recordStage(MetricsRegistry metricsRegistry, String stage, long startNanos) {
+        long now = System.nanoTime();
+        Gauge gauge = metricsRegistry.gauge("candle_validation_stage_seconds", "Duration of the run stages", "stage", stage);
+        gauge.set((now - startNanos) / 1e9);
+        log.info("Stage " + stage + " took " + (now - startNanos) / 1000000 + " ms");
+        return now;
+    }
+
+    private static boolean isDaemonMode(Properties appProps, String[] args) {
+        return Arrays.asList(args).contains("--daemon")
+                || Boolean.parseBoolean(appProps.getProperty("candle-validation.daemon.enabled", "false").trim());
+    }
+
+    private static boolean isBatchMode(Properties appProps) {
+        String prop = appProps.getProperty("candle-validation.mode");
+        return prop != null && prop.trim().equalsIgnoreCase("batch");
+    }
+
+    private static boolean isRangeMode(Properties appProps) {
+        String prop = appProps.getProperty("candle-validation.mode");
+        return prop != null && prop.trim().equalsIgnoreCase("range");
+    }
+
+    private static boolean isWatchMode(Properties appProps) {
+        String prop = appProps.getProperty("candle-validation.mode");
+        return prop != null && prop.trim().equalsIgnoreCase("watch");
+    }
+
+    private static boolean isLocalMode(Properties appProps) {
+        String prop = appProps.getProperty("candle-validation.mode");
+        return prop != null && prop.trim().equalsIgnoreCase("local");
+    }
+
+    private static List<File> getLocalFiles(Properties appProps) throws Exception {
+        String prop = appProps.getProperty("candle-validation.local.path");
+        if (prop == null || prop.isBlank()) {
+            throw new Exception("No candle-validation.local.path set for local mode");
+        }
+        File path = new File(prop.trim());
+        File[] files = path.isDirectory() ? path.listFiles(File::isFile) : new File[]{path};
+        if (files == null) {
+            throw new Exception("Can't read local path " + path.getPath());
+        }
+        Arrays.sort(files);
+        return Arrays.asList(files);
     }
 
 
@@ -106,7 +225,7 @@ public class Main {
 
     @SuppressWarnings("DuplicatedCode")
     private static void improveLogProperties(Properties appProps, Properties logProps) {
-        appProps.setProperty("token", getToken(appProps));
+        appProps.setProperty("token", isBatchMode(appProps) || isRangeMode(appProps) || isWatchMode(appProps) ? "batch" : getToken(appProps));
         Set<Map.Entry<Object, Object>> set = logProps.entrySet();
         @SuppressWarnings("unchecked")
         StringSubstitutor sub = new StringSubstitutor((Map) appProps);
@@ -137,4 +256,39 @@ public class Main {
         return folders.get(folders.size() - 1);
     }
 
+    //clients of the resident mode, they are kept between the scheduled runs until the config is reloaded
+    private static class ScheduledValidation implements DaemonService.Job {
+        private final Properties appProps;
+        private final boolean force;
+        private final MetricsRegistry metricsRegistry;
+        private final WebhookClient webhookClient;
+        private final CloudStorageClient cloudStorageClient;
+        private final TaskExecutors taskExecutors;
+
+        private ScheduledValidation(Properties appProps, boolean force) {
+            this.appProps = appProps;
+            this.force = force;
+            this.metricsRegistry = new MetricsRegistry(appProps);
+            this.taskExecutors = new TaskExecutors(appProps);
+            this.webhookClient = new WebhookClient(appProps, metricsRegistry);
+            this.cloudStorageClient = new CloudStorageClient(appProps, getFileExtension(appProps), taskExecutors, metricsRegistry);
+        }
+
+        @Override
+        public void run() throws Exception {
+            TimeService.startNewLogFile();
+            long start = System.nanoTime();
+            try {
+                validate(appProps, cloudStorageClient, webhookClient, taskExecutors, metricsRegistry, force);
+            } finally {
+                writeMetrics(metricsRegistry, start);
+            }
+        }
+
+        @Override
+        public void close() throws Exception {
+            webhookClient.close();
+            taskExecutors.close();
+        }
+    }
 }
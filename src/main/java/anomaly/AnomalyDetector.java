@@ -0,0 +1,90 @@
+package anomaly;
+
+import model.ValidationResult;
+import model.Violation;
+
+/**
+ * Anomaly checks of one file against the baseline of its token, made of the earlier days of the token.
+ * Rows are checked while they are scanned: a candle return or volume above the baseline quantile times factor is an
+ * outlier. The whole file is checked when it's scanned: the longest run of flat candles at one price, and the daily
+ * volume and volatility against the baseline mean in log scale. Without a baseline of warmUpDays days
+ * only flat runs are checked.
+ */
+public class AnomalyDetector {
+
+    public static final String RETURN_RULE = "anomaly_return";
+    public static final String VOLUME_RULE = "anomaly_volume";
+    public static final String STUCK_RULE = "anomaly_stuck";
+    public static final String DAILY_VOLUME_RULE = "anomaly_daily_volume";
+    public static final String VOLATILITY_RULE = "anomaly_volatility";
+    //days of a baseline hardly ever differ by less than 10% in volume or volatility, a lower deviation is noise
+    private static final double MIN_LOG_STD_DEV = 0.1;
+
+    private final TokenBaseline baseline;
+    private final double returnLimit;
+    private final double volumeLimit;
+    private final double sigmas;
+    private final long stuckRows;
+
+    AnomalyDetector(TokenBaseline baseline, double quantile, double factor, double sigmas, long stuckRows) {
+        this.baseline = baseline;
+        this.sigmas = sigmas;
+        this.stuckRows = stuckRows;
+        if (baseline != null) {
+            this.returnLimit = getLimit(baseline.getReturns(), quantile, factor);
+            this.volumeLimit = getLimit(baseline.getVolumes(), quantile, factor);
+        } else {
+            this.returnLimit = Double.POSITIVE_INFINITY;
+            this.volumeLimit = Double.POSITIVE_INFINITY;
+        }
+    }
+
+    //a zero limit would flag every move of a token which hardly ever trades
+    private static double getLimit(QuantileSketch sketch, double quantile, double factor) {
+        double value = sketch.quantile(quantile);
+        return value > 0 ? value * factor : Double.POSITIVE_INFINITY;
+    }
+
+    public AnomalyScan newScan() {
+        return new AnomalyScan(returnLimit, volumeLimit);
+    }
+
+    public void checkFile(AnomalyScan scan, long lastRow, ValidationResult result) {
+        scan.endRun();
+        if (scan.getLongestRun() >= stuckRows) {
+            addViolation(scan, result, STUCK_RULE, scan.getLongestStart(), scan.getLongestRun() + " flat candles in a row at price "
+                    + scan.getLongestPrice() + " from row " + scan.getLongestStart());
+        }
+        if (baseline == null) {
+            return;
+        }
+        if (scan.getVolumeRows() > 0) {
+            checkDaily(scan, result, DAILY_VOLUME_RULE, lastRow, scan.getLogVolume(), baseline.getDailyVolume(),
+                    "daily volume " + scan.getVolumeSum(), Math.expm1(baseline.getDailyVolume().getMean()));
+        }
+        if (scan.getReturnCount() > 0) {
+            checkDaily(scan, result, VOLATILITY_RULE, lastRow, scan.getLogVolatility(), baseline.getDailyVolatility(),
+                    "volatility " + String.format("%.4g", Math.exp(scan.getLogVolatility())), Math.exp(baseline.getDailyVolatility().getMean()));
+        }
+    }
+
+    private void checkDaily(AnomalyScan scan, ValidationResult result, String rule, long row, double value, RunningStats stats,
+                            String description, double usual) {
+        double stdDev = stats.getStdDev();
+        if (Double.isNaN(stdDev)) {
+            return;
+        }
+        double z = (value - stats.getMean()) / Math.max(stdDev, MIN_LOG_STD_DEV);
+        if (Math.abs(z) > sigmas) {
+            addViolation(scan, result, rule, row, description + " is " + String.format("%.3g", Math.exp(value - stats.getMean()))
+                    + "x of the usual " + String.format("%.6g", usual) + ", " + String.format("%.1f", z) + " sigma");
+        }
+    }
+
+    private static void addViolation(AnomalyScan scan, ValidationResult result, String rule, long row, String details) {
+        scan.setFileAnomaly();
+        if (result.countRuleViolation(rule)) {
+            result.addViolation(new Violation(row, Violation.Type.RULE, rule, details));
+        }
+    }
+}
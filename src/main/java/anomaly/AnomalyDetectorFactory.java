@@ -0,0 +1,39 @@
+package anomaly;
+
+import lombok.extern.apachecommons.CommonsLog;
+
+import java.util.Properties;
+
+/**
+ * Creates the anomaly detector of a file from the baseline of its token and candle-validation.anomaly.* settings.
+ */
+@CommonsLog
+public class AnomalyDetectorFactory {
+
+    private final int warmUpDays;
+    private final double quantile;
+    private final double factor;
+    private final double sigmas;
+    private final long stuckRows;
+
+    public AnomalyDetectorFactory(Properties appProps) {
+        this.warmUpDays = Math.max(2, Integer.parseInt(appProps.getProperty("candle-validation.anomaly.warm_up_days", "5").trim()));
+        this.quantile = Double.parseDouble(appProps.getProperty("candle-validation.anomaly.quantile", "0.999").trim());
+        this.factor = Double.parseDouble(appProps.getProperty("candle-validation.anomaly.factor", "3").trim());
+        this.sigmas = Double.parseDouble(appProps.getProperty("candle-validation.anomaly.sigmas", "4").trim());
+        this.stuckRows = Math.max(2, Long.parseLong(appProps.getProperty("candle-validation.anomaly.stuck_rows", "30").trim()));
+        if (quantile <= 0 || quantile >= 1) {
+            throw new IllegalArgumentException("candle-validation.anomaly.quantile has to be between 0 and 1, it's " + quantile);
+        }
+        log.info("Anomaly detection: warm up days = " + warmUpDays + ", quantile = " + quantile + ", factor = " + factor
+                + ", sigmas = " + sigmas + ", stuck rows = " + stuckRows);
+    }
+
+    /**
+     * @param baseline baseline of the token, null if there is none yet
+     */
+    public AnomalyDetector create(TokenBaseline baseline) {
+        boolean warmedUp = baseline != null && baseline.getDays() >= warmUpDays;
+        return new AnomalyDetector(warmedUp ? baseline : null, quantile, factor, sigmas, stuckRows);
+    }
+}
@@ -0,0 +1,189 @@
+package anomaly;
+
+import lombok.Getter;
+import model.ValidationResult;
+import model.Violation;
+import parser.CandleCursor;
+
+/**
+ * Streaming statistics of one file or chunk for the anomaly stage: sketches of candle returns and volumes, the daily
+ * volume and volatility, and runs of flat candles. Memory is constant, rows are checked against the limits of the
+ * baseline as they are read.
+ */
+@Getter
+public class AnomalyScan {
+
+    //floor of the daily volatility, so a day without any price change still has a logarithm
+    private static final double MIN_VOLATILITY = 1e-9;
+
+    private final double returnLimit;
+    private final double volumeLimit;
+    private final QuantileSketch returns = new QuantileSketch();
+    private final QuantileSketch volumes = new QuantileSketch();
+    private long rows;
+    private double volumeSum;
+    private long volumeRows;
+    private long returnCount;
+    private double returnSquares;
+    private double firstClose = Double.NaN;
+    private long firstCloseRow;
+    private double lastClose = Double.NaN;
+    //runs of flat candles (open = high = low = close) at one price; the leading run starts at the first row
+    private boolean leading = true;
+    private long leadRun;
+    private double leadPrice;
+    private long run;
+    private long runStart;
+    private double runPrice;
+    private long longestRun;
+    private long longestStart;
+    private double longestPrice;
+    //set by the file level checks, such a day isn't merged into the baseline
+    private boolean fileAnomaly;
+
+    AnomalyScan(double returnLimit, double volumeLimit) {
+        this.returnLimit = returnLimit;
+        this.volumeLimit = volumeLimit;
+    }
+
+    /**
+     * Called for every row with a valid timestamp.
+     */
+    public void add(CandleCursor cursor, long row, ValidationResult result) {
+        rows++;
+        double volume = cursor.getVolume();
+        if (!Double.isNaN(volume)) {
+            volumeSum += volume;
+            volumeRows++;
+            volumes.add(volume);
+            if (volume > volumeLimit && result.countRuleViolation(AnomalyDetector.VOLUME_RULE)) {
+                result.addViolation(new Violation(row, Violation.Type.RULE, AnomalyDetector.VOLUME_RULE,
+                        "volume " + volume + " is above the baseline limit " + String.format("%.6g", volumeLimit)));
+            }
+        }
+        double close = cursor.getClose();
+        if (Double.isNaN(close)) {
+            endRun();
+            return;
+        }
+        if (Double.isNaN(lastClose)) {
+            firstClose = close;
+            firstCloseRow = row;
+        } else {
+            addReturn(lastClose, close, row, result);
+        }
+        lastClose = close;
+        boolean flat = cursor.getOpen() == close && cursor.getHigh() == close && cursor.getLow() == close;
+        if (flat && run > 0 && runPrice == close) {
+            run++;
+        } else if (flat) {
+            if (run > 0) {
+                endRun();
+            }
+            run = 1;
+            runStart = row;
+            runPrice = close;
+        } else {
+            endRun();
+        }
+    }
+
+    private void addReturn(double previous, double close, long row, ValidationResult result) {
+        if (previous == 0) {
+            return;
+        }
+        double change = Math.abs(close / previous - 1);
+        returns.add(change);
+        returnCount++;
+        returnSquares += change * change;
+        if (change > returnLimit && result.countRuleViolation(AnomalyDetector.RETURN_RULE)) {
+            result.addViolation(new Violation(row, Violation.Type.RULE, AnomalyDetector.RETURN_RULE,
+                    "close " + close + " after " + previous + " moves " + String.format("%.2f%%", change * 100)
+                            + ", the baseline limit is " + String.format("%.2f%%", returnLimit * 100)));
+        }
+    }
+
+    void endRun() {
+        if (run > longestRun) {
+            longestRun = run;
+            longestStart = runStart;
+            longestPrice = runPrice;
+        }
+        if (leading) {
+            leadRun = run;
+            leadPrice = runPrice;
+            leading = false;
+        }
+        run = 0;
+    }
+
+    void setFileAnomaly() {
+        this.fileAnomaly = true;
+    }
+
+    /**
+     * Checks the return from the last close of this chunk to the first close of the next one, rows of the next
+     * chunk start at offset.
+     */
+    public void addBoundary(AnomalyScan next, long offset, ValidationResult result) {
+        if (!Double.isNaN(lastClose) && !Double.isNaN(next.firstClose)) {
+            addReturn(lastClose, next.firstClose, offset + next.firstCloseRow, result);
+        }
+    }
+
+    /**
+     * Appends the next chunk as if both were scanned in one pass, its rows start at offset.
+     */
+    public void append(AnomalyScan next, long offset) {
+        returns.merge(next.returns);
+        volumes.merge(next.volumes);
+        volumeSum += next.volumeSum;
+        volumeRows += next.volumeRows;
+        returnCount += next.returnCount;
+        returnSquares += next.returnSquares;
+        if (!Double.isNaN(next.lastClose)) {
+            if (Double.isNaN(lastClose)) {
+                firstClose = next.firstClose;
+                firstCloseRow = offset + next.firstCloseRow;
+            }
+            lastClose = next.lastClose;
+        }
+        if (next.rows == 0) {
+            return;
+        }
+        boolean empty = rows == 0;
+        rows += next.rows;
+        if (next.longestRun > longestRun) {
+            longestRun = next.longestRun;
+            longestStart = offset + next.longestStart;
+            longestPrice = next.longestPrice;
+        }
+        if (empty) {
+            leading = next.leading;
+            leadRun = next.leadRun;
+            leadPrice = next.leadPrice;
+        } else {
+            //a chunk which is still leading is a single run, its first row continues or ends the run of this one
+            long nextLeadRun = next.leading ? next.run : next.leadRun;
+            if (run > 0 && nextLeadRun > 0 && runPrice == (next.leading ? next.runPrice : next.leadPrice)) {
+                run += nextLeadRun;
+                if (next.leading) {
+                    return;
+                }
+            }
+            endRun();
+        }
+        run = next.run;
+        runStart = offset + next.runStart;
+        runPrice = next.runPrice;
+    }
+
+    public double getLogVolume() {
+        return Math.log1p(volumeSum);
+    }
+
+    //root mean square of the candle returns
+    public double getLogVolatility() {
+        return Math.log(Math.max(Math.sqrt(returnSquares / returnCount), MIN_VOLATILITY));
+    }
+}
@@ -0,0 +1,165 @@
+package anomaly;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Quantiles of non negative values in constant memory. Values are counted in logarithmic bins, as in DDSketch,
+ * so a quantile is within RELATIVE_ACCURACY of the true one. At most MAX_BINS bins are kept, when values span a wider
+ * range the lowest bins are folded together: low quantiles lose accuracy, the high ones used for outliers don't.
+ * Counts are doubles, so older values can be faded out with decay.
+ */
+public class QuantileSketch {
+
+    static final double RELATIVE_ACCURACY = 0.02;
+    static final int MAX_BINS = 256;
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+
+    //bins[i] counts values in (GAMMA^(offset + i - 1), GAMMA^(offset + i)], allocated with the first positive value
+    private double[] bins;
+    private int offset;
+    private int used;
+    private double zeroCount;
+    private double count;
+
+    /**
+     * Counts the value, NaN and negative values are ignored.
+     */
+    public void add(double value) {
+        if (!(value >= 0)) {
+            return;
+        }
+        if (value == 0) {
+            zeroCount++;
+            count++;
+            return;
+        }
+        add((int) Math.ceil(Math.log(value) / LOG_GAMMA), 1);
+    }
+
+    private void add(int index, double weight) {
+        count += weight;
+        if (bins == null) {
+            bins = new double[MAX_BINS];
+        }
+        if (used == 0) {
+            offset = index;
+            used = 1;
+        } else if (index < offset) {
+            //grows down as far as there is room, lower values go to the lowest bin
+            int shift = Math.min(offset - index, MAX_BINS - used);
+            if (shift > 0) {
+                System.arraycopy(bins, 0, bins, shift, used);
+                Arrays.fill(bins, 0, shift, 0);
+                offset -= shift;
+                used += shift;
+            }
+            index = Math.max(index, offset);
+        } else if (index >= offset + used) {
+            int fold = index - offset + 1 - MAX_BINS;
+            if (fold > 0) {
+                foldLowest(fold);
+            }
+            used = index - offset + 1;
+        }
+        bins[index - offset] += weight;
+    }
+
+    //moves the window up by fold bins, the counts below it go to its lowest bin
+    private void foldLowest(int fold) {
+        double folded = 0;
+        for (int i = 0; i < Math.min(fold + 1, used); i++) {
+            folded += bins[i];
+        }
+        if (fold < used) {
+            System.arraycopy(bins, fold, bins, 0, used - fold);
+            Arrays.fill(bins, used - fold, used, 0);
+            used -= fold;
+        } else {
+            Arrays.fill(bins, 0, used, 0);
+            used = 1;
+        }
+        bins[0] = folded;
+        offset += fold;
+    }
+
+    public void merge(QuantileSketch other) {
+        zeroCount += other.zeroCount;
+        count += other.zeroCount;
+        for (int i = 0; i < other.used; i++) {
+            if (other.bins[i] > 0) {
+                add(other.offset + i, other.bins[i]);
+            }
+        }
+    }
+
+    public void decay(double factor) {
+        zeroCount *= factor;
+        count *= factor;
+        for (int i = 0; i < used; i++) {
+            bins[i] *= factor;
+        }
+    }
+
+    public double getCount() {
+        return count;
+    }
+
+    /**
+     * @return the value below which the q part of the values are, NaN when the sketch is empty
+     */
+    public double quantile(double q) {
+        if (count <= 0) {
+            return Double.NaN;
+        }
+        double rank = q * count;
+        double seen = zeroCount;
+        if (seen > rank) {
+            return 0;
+        }
+        for (int i = 0; i < used; i++) {
+            seen += bins[i];
+            if (seen > rank) {
+                return getValue(offset + i);
+            }
+        }
+        return used > 0 ? getValue(offset + used - 1) : 0;
+    }
+
+    //the middle of the bin by relative error
+    private static double getValue(int index) {
+        return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+    }
+
+    //counts are written as floats, a baseline doesn't need more precision
+    void write(DataOutput output) throws IOException {
+        output.writeFloat((float) zeroCount);
+        output.writeInt(offset);
+        output.writeShort(used);
+        for (int i = 0; i < used; i++) {
+            output.writeFloat((float) bins[i]);
+        }
+    }
+
+    static QuantileSketch read(DataInput input) throws IOException {
+        QuantileSketch result = new QuantileSketch();
+        result.zeroCount = input.readFloat();
+        result.count = result.zeroCount;
+        result.offset = input.readInt();
+        result.used = input.readShort();
+        if (result.used < 0 || result.used > MAX_BINS) {
+            throw new IOException("Quantile sketch has " + result.used + " bins, at most " + MAX_BINS + " are expected");
+        }
+        if (result.used > 0) {
+            result.bins = new double[MAX_BINS];
+            for (int i = 0; i < result.used; i++) {
+                result.bins[i] = input.readFloat();
+                result.count += result.bins[i];
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,74 @@
+package anomaly;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Mean and variance of a stream in constant memory, updated with Welford's algorithm. Values are weighted, so older
+ * ones can be faded out with decay, and two instances can be merged.
+ */
+public class RunningStats {
+
+    private double weight;
+    private double mean;
+    private double m2;
+
+    public void add(double value) {
+        weight += 1;
+        double delta = value - mean;
+        mean += delta / weight;
+        m2 += delta * (value - mean);
+    }
+
+    //Chan's formula for the union of two streams
+    public void merge(RunningStats other) {
+        if (other.weight <= 0) {
+            return;
+        }
+        double total = weight + other.weight;
+        double delta = other.mean - mean;
+        mean += delta * other.weight / total;
+        m2 += other.m2 + delta * delta * weight * other.weight / total;
+        weight = total;
+    }
+
+    /**
+     * Multiplies the weight of every value seen so far, mean is kept.
+     */
+    public void decay(double factor) {
+        weight *= factor;
+        m2 *= factor;
+    }
+
+    public double getWeight() {
+        return weight;
+    }
+
+    public double getMean() {
+        return weight > 0 ? mean : Double.NaN;
+    }
+
+    public double getStdDev() {
+        return weight > 1 ? Math.sqrt(Math.max(0, m2 / (weight - 1))) : Double.NaN;
+    }
+
+    void write(DataOutput output) throws IOException {
+        output.writeDouble(weight);
+        output.writeDouble(mean);
+        output.writeDouble(m2);
+    }
+
+    static RunningStats read(DataInput input) throws IOException {
+        RunningStats result = new RunningStats();
+        result.weight = input.readDouble();
+        result.mean = input.readDouble();
+        result.m2 = input.readDouble();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "mean " + getMean() + ", std dev " + getStdDev() + ", weight " + weight;
+    }
+}
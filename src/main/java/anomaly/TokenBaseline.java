@@ -0,0 +1,87 @@
+package anomaly;
+
+import lombok.Getter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * What is normal for a token, made of its earlier days: sketches of candle returns and volumes, and mean and variance
+ * of the daily volume and volatility. Every merged day fades the older ones, so the baseline follows the token.
+ * Serialized it takes a few hundred bytes to a few KB.
+ */
+@Getter
+public class TokenBaseline {
+
+    private long lastEpochDay = Long.MIN_VALUE;
+    private int days;
+    private QuantileSketch returns = new QuantileSketch();
+    private QuantileSketch volumes = new QuantileSketch();
+    private RunningStats dailyVolume = new RunningStats();
+    private RunningStats dailyVolatility = new RunningStats();
+
+    /**
+     * Adds the day to the baseline, the weight of the earlier days halves every halfLifeDays.
+     * A day which isn't after the last merged one is skipped, so a re-run doesn't count a day twice.
+     *
+     * @return false when the day is skipped
+     */
+    public boolean merge(AnomalyScan scan, long epochDay, double halfLifeDays) {
+        if (epochDay <= lastEpochDay) {
+            return false;
+        }
+        if (days > 0 && halfLifeDays > 0) {
+            double factor = Math.pow(0.5, (epochDay - lastEpochDay) / halfLifeDays);
+            returns.decay(factor);
+            volumes.decay(factor);
+            dailyVolume.decay(factor);
+            dailyVolatility.decay(factor);
+        }
+        returns.merge(scan.getReturns());
+        volumes.merge(scan.getVolumes());
+        if (scan.getVolumeRows() > 0) {
+            dailyVolume.add(scan.getLogVolume());
+        }
+        if (scan.getReturnCount() > 0) {
+            dailyVolatility.add(scan.getLogVolatility());
+        }
+        lastEpochDay = epochDay;
+        days++;
+        return true;
+    }
+
+    public byte[] toBytes() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeLong(lastEpochDay);
+            output.writeInt(days);
+            dailyVolume.write(output);
+            dailyVolatility.write(output);
+            returns.write(output);
+            volumes.write(output);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static TokenBaseline fromBytes(byte[] bytes) throws IOException {
+        TokenBaseline result = new TokenBaseline();
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            result.lastEpochDay = input.readLong();
+            result.days = input.readInt();
+            result.dailyVolume = RunningStats.read(input);
+            result.dailyVolatility = RunningStats.read(input);
+            result.returns = QuantileSketch.read(input);
+            result.volumes = QuantileSketch.read(input);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "days " + days + ", last day " + lastEpochDay + ", daily volume (log) " + dailyVolume
+                + ", volatility (log) " + dailyVolatility;
+    }
+}
@@ -0,0 +1,17 @@
+package metrics;
+
+/**
+ * Last set value, e.g. a queue depth or the duration of the whole run.
+ */
+public class Gauge {
+
+    private volatile double value;
+
+    public void set(double value) {
+        this.value = value;
+    }
+
+    public double get() {
+        return value;
+    }
+}
@@ -0,0 +1,62 @@
+package metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of durations in seconds over fixed buckets, as a Prometheus histogram.
+ */
+public class Histogram {
+
+    static final double[] BUCKETS = {0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 300};
+
+    //the last one is +Inf
+    private final LongAdder[] bucketCounts = new LongAdder[BUCKETS.length + 1];
+    private final LongAdder count = new LongAdder();
+    private final DoubleAdder sum = new DoubleAdder();
+
+    Histogram() {
+        for (int i = 0; i < bucketCounts.length; i++) {
+            bucketCounts[i] = new LongAdder();
+        }
+    }
+
+    public void observe(double seconds) {
+        int bucket = 0;
+        while (bucket < BUCKETS.length && seconds > BUCKETS[bucket]) {
+            bucket++;
+        }
+        bucketCounts[bucket].increment();
+        count.increment();
+        sum.add(seconds);
+    }
+
+    /**
+     * Observes the time passed since startNanos, a System.nanoTime() value.
+     */
+    public void observeSince(long startNanos) {
+        observe((System.nanoTime() - startNanos) / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return cumulative counts of observations less or equal to each bucket bound, the last one is the total count
+     */
+    long[] getCumulativeCounts() {
+        long[] result = new long[bucketCounts.length];
+        long total = 0;
+        for (int i = 0; i < bucketCounts.length; i++) {
+            total += bucketCounts[i].sum();
+            result[i] = total;
+        }
+        return result;
+    }
+}
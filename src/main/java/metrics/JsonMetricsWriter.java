@@ -0,0 +1,54 @@
+package metrics;
+
+import utilities.JsonUtils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * JSON summary: {"metric": {"help": ..., "type": ..., "values": {"labels": value}}}.
+ * A histogram value is its count, sum, mean and cumulative bucket counts.
+ */
+public class JsonMetricsWriter implements MetricsWriter {
+
+    @Override
+    public void write(MetricsRegistry registry, Writer writer) throws IOException {
+        writer.write("{\n");
+        Iterator<MetricsRegistry.Family> families = registry.getFamilies().iterator();
+        while (families.hasNext()) {
+            MetricsRegistry.Family family = families.next();
+            writer.write("  " + JsonUtils.quote(family.name) + ": {\"help\": " + JsonUtils.quote(family.help)
+                    + ", \"type\": " + JsonUtils.quote(family.type.name().toLowerCase()) + ", \"values\": {");
+            Iterator<Map.Entry<String, Object>> metrics = family.metrics.entrySet().iterator();
+            while (metrics.hasNext()) {
+                Map.Entry<String, Object> entry = metrics.next();
+                writer.write("\n    " + JsonUtils.quote(entry.getKey()) + ": " + toJson(entry.getValue()));
+                writer.write(metrics.hasNext() ? "," : "\n  ");
+            }
+            writer.write(families.hasNext() ? "}},\n" : "}}\n");
+        }
+        writer.write("}\n");
+    }
+
+    private static String toJson(Object metric) {
+        if (metric instanceof Counter) {
+            return String.valueOf(((Counter) metric).get());
+        }
+        if (metric instanceof Gauge) {
+            return JsonUtils.number(((Gauge) metric).get());
+        }
+        Histogram histogram = (Histogram) metric;
+        long[] counts = histogram.getCumulativeCounts();
+        long count = counts[counts.length - 1];
+        StringBuilder builder = new StringBuilder("{\"count\": ").append(count)
+                .append(", \"sum\": ").append(JsonUtils.number(histogram.getSum()))
+                .append(", \"mean\": ").append(JsonUtils.number(count > 0 ? histogram.getSum() / count : 0))
+                .append(", \"buckets\": {");
+        for (int i = 0; i < Histogram.BUCKETS.length; i++) {
+            builder.append(i > 0 ? ", " : "").append('"').append(Histogram.BUCKETS[i]).append("\": ").append(counts[i]);
+        }
+        return builder.append("}}").toString();
+    }
+}
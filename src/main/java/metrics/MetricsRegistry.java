@@ -0,0 +1,144 @@
+package metrics;
+
+import lombok.extern.apachecommons.CommonsLog;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+/**
+ * Counters, gauges and histograms of a run, grouped in families by name and told apart by labels.
+ * Labels are given as name, value pairs. Metrics are kept in memory and written once by write(),
+ * in the format of candle-validation.metrics.format: prometheus (text exposition format, e.g. for the node_exporter
+ * textfile collector), json or none.
+ */
+@CommonsLog
+public class MetricsRegistry {
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+    private final MetricsWriter writer;
+    private final Path file;
+
+    /**
+     * Registry which is never written, for code used outside of a run.
+     */
+    public MetricsRegistry() {
+        this.writer = null;
+        this.file = null;
+    }
+
+    public MetricsRegistry(Properties appProps) {
+        String format = appProps.getProperty("candle-validation.metrics.format", "none").trim().toLowerCase();
+        String fileName = appProps.getProperty("candle-validation.metrics.file");
+        switch (format) {
+            case "prometheus":
+                this.writer = new PrometheusMetricsWriter();
+                break;
+            case "json":
+                this.writer = new JsonMetricsWriter();
+                break;
+            case "none":
+                this.writer = null;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown metrics format \"" + format + "\"");
+        }
+        this.file = fileName == null || fileName.isBlank() ? null : Path.of(fileName.trim());
+    }
+
+    public Counter counter(String name, String help, String... labels) {
+        return get(name, help, Family.Type.COUNTER, labels, Counter::new);
+    }
+
+    public Gauge gauge(String name, String help, String... labels) {
+        return get(name, help, Family.Type.GAUGE, labels, Gauge::new);
+    }
+
+    public Histogram histogram(String name, String help, String... labels) {
+        return get(name, help, Family.Type.HISTOGRAM, labels, Histogram::new);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T get(String name, String help, Family.Type type, String[] labels, Supplier<T> factory) {
+        Family family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+        if (family.type != type) {
+            throw new IllegalArgumentException("Metric " + name + " is a " + family.type);
+        }
+        return (T) family.metrics.computeIfAbsent(formatLabels(labels), key -> factory.get());
+    }
+
+    //{operation="head",status="404"}, empty without labels
+    private static String formatLabels(String[] labels) {
+        if (labels.length == 0) {
+            return "";
+        }
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels have to be name, value pairs");
+        }
+        StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(labels[i]).append("=\"");
+            String value = labels[i + 1] == null ? "" : labels[i + 1];
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                if (c == '\\' || c == '"') {
+                    builder.append('\\').append(c);
+                } else if (c == '\n') {
+                    builder.append("\\n");
+                } else {
+                    builder.append(c);
+                }
+            }
+            builder.append('"');
+        }
+        return builder.append('}').toString();
+    }
+
+    Collection<Family> getFamilies() {
+        return families.values();
+    }
+
+    /**
+     * Writes all metrics to candle-validation.metrics.file through a temp file, so a collector never reads half of it.
+     */
+    public void write() throws IOException {
+        if (writer == null || file == null) {
+            return;
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tempFile = Files.createTempFile(parent, "metrics", ".tmp");
+        try (Writer output = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            writer.write(this, output);
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("Metrics are written to " + file);
+    }
+
+    static class Family {
+        enum Type {COUNTER, GAUGE, HISTOGRAM}
+
+        final String name;
+        final String help;
+        final Type type;
+        //labels -> Counter, Gauge or Histogram
+        final Map<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+        private Family(String name, String help, Type type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
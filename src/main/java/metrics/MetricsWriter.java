@@ -0,0 +1,12 @@
+package metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Output format of the metrics registry.
+ */
+public interface MetricsWriter {
+
+    void write(MetricsRegistry registry, Writer writer) throws IOException;
+}
@@ -0,0 +1,49 @@
+package metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Prometheus text exposition format, version 0.0.4.
+ */
+public class PrometheusMetricsWriter implements MetricsWriter {
+
+    @Override
+    public void write(MetricsRegistry registry, Writer writer) throws IOException {
+        for (MetricsRegistry.Family family : registry.getFamilies()) {
+            writer.write("# HELP " + family.name + " " + family.help + "\n");
+            writer.write("# TYPE " + family.name + " " + family.type.name().toLowerCase() + "\n");
+            for (Map.Entry<String, Object> entry : family.metrics.entrySet()) {
+                String labels = entry.getKey();
+                Object metric = entry.getValue();
+                if (metric instanceof Counter) {
+                    writer.write(family.name + labels + " " + ((Counter) metric).get() + "\n");
+                } else if (metric instanceof Gauge) {
+                    writer.write(family.name + labels + " " + format(((Gauge) metric).get()) + "\n");
+                } else {
+                    writeHistogram(writer, family.name, labels, (Histogram) metric);
+                }
+            }
+        }
+    }
+
+    private static void writeHistogram(Writer writer, String name, String labels, Histogram histogram) throws IOException {
+        long[] counts = histogram.getCumulativeCounts();
+        for (int i = 0; i < counts.length; i++) {
+            String bound = i < Histogram.BUCKETS.length ? format(Histogram.BUCKETS[i]) : "+Inf";
+            writer.write(name + "_bucket" + withLabel(labels, "le", bound) + " " + counts[i] + "\n");
+        }
+        writer.write(name + "_sum" + labels + " " + format(histogram.getSum()) + "\n");
+        writer.write(name + "_count" + labels + " " + counts[counts.length - 1] + "\n");
+    }
+
+    private static String withLabel(String labels, String name, String value) {
+        String label = name + "=\"" + value + "\"";
+        return labels.isEmpty() ? "{" + label + "}" : labels.substring(0, labels.length() - 1) + "," + label + "}";
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) && !Double.isInfinite(value) ? String.valueOf((long) value) : String.valueOf(value);
+    }
+}
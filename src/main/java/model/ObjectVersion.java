@@ -0,0 +1,22 @@
+package model;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * S3 object identity used to tell whether a file has changed since it was validated.
+ */
+@Getter
+@RequiredArgsConstructor
+public class ObjectVersion {
+
+    private final String bucket;
+    private final String key;
+    private final String eTag;
+    private final long size;
+
+    @Override
+    public String toString() {
+        return bucket + key + " (ETag " + eTag + ", " + size + " bytes)";
+    }
+}
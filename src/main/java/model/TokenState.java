@@ -0,0 +1,27 @@
+package model;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Summary of one validated file of a token, enough to check the next trading day against it without reading it again.
+ */
+@Getter
+@RequiredArgsConstructor
+public class TokenState {
+
+    private final long epochDay;
+    private final long rowCount;
+    private final long firstTimestamp;
+    private final long lastTimestamp;
+    private final double lastOpen;
+    private final double lastHigh;
+    private final double lastLow;
+    private final double lastClose;
+
+    @Override
+    public String toString() {
+        return "day " + epochDay + ", rows " + rowCount + ", " + firstTimestamp + " - " + lastTimestamp
+                + ", last OHLC " + lastOpen + "/" + lastHigh + "/" + lastLow + "/" + lastClose;
+    }
+}
@@ -0,0 +1,30 @@
+package model;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+public class TokenValidationResult {
+
+    public enum Status {
+        SUCCESS, FAILED, MISSING, ERROR
+    }
+
+    private final String token;
+    private final String fileName;
+    private final Status status;
+    private final String message;
+    //null when the file was not validated
+    private final ValidationResult validationResult;
+
+    public boolean isSuccess() {
+        return status == Status.SUCCESS;
+    }
+
+    @Override
+    public String toString() {
+        return token + " " + fileName + " " + status + (validationResult != null ? " (" + validationResult + ")" : "")
+                + (message != null ? ": " + message : "");
+    }
+}
@@ -0,0 +1,152 @@
+package model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * All violations found in one file. Every violation is counted, but only the first maxViolations are kept with details.
+ * Callers check countViolation/countRuleViolation before building a Violation, so rows past the cap allocate nothing.
+ */
+@Getter
+public class ValidationResult {
+
+    private final int maxViolations;
+    @Setter
+    private long rowCount;
+    @Setter
+    private long expectedCount = -1;
+    private long totalViolations;
+    private final long[] typeCounts = new long[Violation.Type.values().length];
+    private final Map<String, long[]> ruleCounts = new TreeMap<>();
+    private final List<Violation> violations = new ArrayList<>();
+    //time spent on parsing and checking the rows
+    @Setter
+    private long parseNanos;
+    //time blocked reading the content while it was parsed, e.g. waiting for S3 in stream mode
+    @Setter
+    private long readNanos;
+
+    public ValidationResult(int maxViolations) {
+        this.maxViolations = maxViolations;
+    }
+
+    /**
+     * Counts a violation of the type.
+     *
+     * @return true when there is room to keep its details with addViolation
+     */
+    public boolean countViolation(Violation.Type type) {
+        typeCounts[type.ordinal()]++;
+        totalViolations++;
+        return violations.size() < maxViolations;
+    }
+
+    public boolean countRuleViolation(String rule) {
+        ruleCounts.computeIfAbsent(rule, key -> new long[1])[0]++;
+        return countViolation(Violation.Type.RULE);
+    }
+
+    public void addViolation(Violation violation) {
+        if (violations.size() < maxViolations) {
+            violations.add(violation);
+        }
+    }
+
+    /**
+     * Adds the result of the next part of the same file, its rows start at rowOffset.
+     * Kept violations are merged by row, so the first maxViolations are the same as for a single pass.
+     */
+    public void append(ValidationResult next, long rowOffset) {
+        for (int i = 0; i < typeCounts.length; i++) {
+            typeCounts[i] += next.typeCounts[i];
+        }
+        for (Map.Entry<String, long[]> entry : next.ruleCounts.entrySet()) {
+            ruleCounts.computeIfAbsent(entry.getKey(), key -> new long[1])[0] += entry.getValue()[0];
+        }
+        totalViolations += next.totalViolations;
+        rowCount += next.rowCount;
+        if (next.violations.isEmpty()) {
+            return;
+        }
+        List<Violation> merged = new ArrayList<>(Math.min(maxViolations, violations.size() + next.violations.size()));
+        int i = 0;
+        int j = 0;
+        while (merged.size() < maxViolations && (i < violations.size() || j < next.violations.size())) {
+            if (j >= next.violations.size()
+                    || (i < violations.size() && violations.get(i).getRow() <= next.violations.get(j).getRow() + rowOffset)) {
+                merged.add(violations.get(i++));
+            } else {
+                merged.add(next.violations.get(j++).withRowOffset(rowOffset));
+            }
+        }
+        violations.clear();
+        violations.addAll(merged);
+    }
+
+    public boolean isCountValid() {
+        return expectedCount < 0 || rowCount == expectedCount;
+    }
+
+    public boolean isValid() {
+        return isCountValid() && totalViolations == 0;
+    }
+
+    public long getViolationCount(Violation.Type type) {
+        return typeCounts[type.ordinal()];
+    }
+
+    public Map<String, Long> getRuleViolationCounts() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<String, long[]> entry : ruleCounts.entrySet()) {
+            result.put(entry.getKey(), entry.getValue()[0]);
+        }
+        return result;
+    }
+
+    /**
+     * @return violation counts by check: "count" for a wrong row count, the lower case type for blank, invalid_timestamp
+     * and order, the rule name for rule violations
+     */
+    public Map<String, Long> getFailedChecks() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        if (!isCountValid()) {
+            result.put("count", 1L);
+        }
+        for (Violation.Type type : Violation.Type.values()) {
+            if (type != Violation.Type.RULE && typeCounts[type.ordinal()] > 0) {
+                result.put(type.name().toLowerCase(), typeCounts[type.ordinal()]);
+            }
+        }
+        result.putAll(getRuleViolationCounts());
+        return result;
+    }
+
+    public List<Violation> getViolations() {
+        return Collections.unmodifiableList(violations);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("rows = " + rowCount);
+        if (!isCountValid()) {
+            result.append(" (expected ").append(expectedCount).append(")");
+        }
+        result.append(", violations = ").append(totalViolations);
+        for (Violation.Type type : Violation.Type.values()) {
+            if (type != Violation.Type.RULE && typeCounts[type.ordinal()] > 0) {
+                result.append(", ").append(type).append(" = ").append(typeCounts[type.ordinal()]);
+            }
+        }
+        for (Map.Entry<String, long[]> entry : ruleCounts.entrySet()) {
+            result.append(", ").append(entry.getKey()).append(" = ").append(entry.getValue()[0]);
+        }
+        return result.toString();
+    }
+}
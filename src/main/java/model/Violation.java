@@ -0,0 +1,33 @@
+package model;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+public class Violation {
+
+    public enum Type {
+        BLANK, INVALID_TIMESTAMP, ORDER, RULE
+    }
+
+    private final long row;
+    private final Type type;
+    //rule name for RULE violations, null otherwise
+    private final String rule;
+    private final String values;
+
+    //name of the failed check, as in ValidationResult.getFailedChecks
+    public String getCheck() {
+        return rule != null ? rule : type.name().toLowerCase();
+    }
+
+    public Violation withRowOffset(long offset) {
+        return new Violation(row + offset, type, rule, values);
+    }
+
+    @Override
+    public String toString() {
+        return "row " + row + " " + (rule != null ? rule : type) + (values != null && !values.isEmpty() ? ": " + values : "");
+    }
+}
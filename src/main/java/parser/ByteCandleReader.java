@@ -0,0 +1,305 @@
+package parser;
+
+import com.opencsv.CSVParser;
+import com.opencsv.CSVParserBuilder;
+import com.opencsv.exceptions.CsvMalformedLineException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Candle reader working on raw bytes: fields are split on commas and numbers are parsed straight into the cursor
+ * without creating Strings. Lines end with \n, \r or \r\n, as for BufferedReader used by OpenCSV.
+ * Lines with quotes or escapes are handed to the OpenCSV parser, so verdicts stay the same as with OpenCsvCandleReader.
+ */
+public class ByteCandleReader implements CandleReader {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private static final byte SEPARATOR = ',';
+    private static final byte QUOTE = '"';
+    private static final byte ESCAPE = '\\';
+    private static final int PRICE_COLUMNS = 5;
+    //10^n is exact in double up to n = 22, mantissa / 10^n is then correctly rounded
+    private static final double[] POWERS_OF_TEN = new double[23];
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    static {
+        POWERS_OF_TEN[0] = 1d;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10d;
+        }
+    }
+
+    private final InputStream inputStream;
+    private ByteBuffer buffer;
+    private boolean endOfStream;
+    private boolean skipLineFeed;
+    private CSVParser fallbackParser;
+    private boolean irregularLines;
+
+    /**
+     * Reads rows from the stream in chunks.
+     */
+    public ByteCandleReader(InputStream inputStream, int chunkSize) {
+        this.inputStream = inputStream;
+        this.buffer = ByteBuffer.allocate(chunkSize);
+        this.buffer.flip();
+    }
+
+    public ByteCandleReader(InputStream inputStream) {
+        this(inputStream, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Reads rows from the buffer between its position and limit, e.g. a region of a memory mapped file.
+     */
+    public ByteCandleReader(ByteBuffer buffer) {
+        this.inputStream = null;
+        this.buffer = buffer;
+        this.endOfStream = true;
+    }
+
+    @Override
+    public boolean next(CandleCursor cursor) throws IOException {
+        int lineEnd = findLineEnd();
+        if (lineEnd < 0) {
+            return false;
+        }
+        int lineStart = buffer.position();
+        if (hasQuoteOrEscape(lineStart, lineEnd)) {
+            irregularLines = true;
+            cursor.set(parseIrregular(lineStart, lineEnd));
+        } else {
+            parseLine(lineStart, lineEnd, cursor);
+            skipTerminator(lineEnd);
+        }
+        return true;
+    }
+
+    //index of the line terminator (or the limit for the last line), -1 when there are no more lines
+    private int findLineEnd() throws IOException {
+        int from = buffer.position();
+        while (true) {
+            int limit = buffer.limit();
+            if (skipLineFeed && from < limit) {
+                skipLineFeed = false;
+                if (buffer.get(from) == '\n') {
+                    buffer.position(++from);
+                }
+            }
+            for (int i = from; i < limit; i++) {
+                byte b = buffer.get(i);
+                if (b == '\n' || b == '\r') {
+                    return i;
+                }
+            }
+            if (endOfStream) {
+                return buffer.position() < limit ? limit : -1;
+            }
+            from = fill();
+        }
+    }
+
+    //keeps the unread part of the buffer, reads more bytes and returns the index to continue the search from
+    private int fill() throws IOException {
+        int unread = buffer.remaining();
+        if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+            ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+            grown.put(buffer);
+            buffer = grown;
+        } else {
+            buffer.compact();
+        }
+        int read = inputStream.read(buffer.array(), buffer.position(), buffer.remaining());
+        if (read < 0) {
+            endOfStream = true;
+        } else {
+            buffer.position(buffer.position() + read);
+        }
+        buffer.flip();
+        return skipLineFeed ? 0 : unread;
+    }
+
+    private void skipTerminator(int lineEnd) {
+        if (lineEnd < buffer.limit()) {
+            skipLineFeed = buffer.get(lineEnd) == '\r';
+            buffer.position(lineEnd + 1);
+        } else {
+            buffer.position(lineEnd);
+        }
+    }
+
+    private boolean hasQuoteOrEscape(int start, int end) {
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b == QUOTE || b == ESCAPE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void parseLine(int start, int end, CandleCursor cursor) {
+        cursor.startRow();
+        int column = 0;
+        int fieldStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i == end || buffer.get(i) == SEPARATOR) {
+                if (column == 0) {
+                    parseTimestamp(fieldStart, i, cursor);
+                } else if (column <= PRICE_COLUMNS) {
+                    cursor.setPrice(column, parseDouble(fieldStart, i));
+                }
+                column++;
+                fieldStart = i + 1;
+            }
+        }
+        cursor.setFieldCount(column);
+    }
+
+    private void parseTimestamp(int start, int end, CandleCursor cursor) {
+        if (isBlank(start, end)) {
+            cursor.setTimestampBlank();
+            return;
+        }
+        int i = start;
+        boolean negative = false;
+        byte first = buffer.get(i);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            i++;
+        }
+        long result = 0;
+        //accumulated negatively as Long.parseLong does, so Long.MIN_VALUE fits
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multiplyMin = limit / 10;
+        boolean valid = i < end;
+        for (; i < end && valid; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9 || result < multiplyMin) {
+                valid = false;
+            } else {
+                result *= 10;
+                if (result < limit + digit) {
+                    valid = false;
+                } else {
+                    result -= digit;
+                }
+            }
+        }
+        if (valid) {
+            cursor.setTimestamp(negative ? result : -result);
+            return;
+        }
+        //rare path: let Long.parseLong produce the same outcome as for OpenCSV rows
+        try {
+            cursor.setTimestamp(Long.parseLong(toString(start, end)));
+        } catch (NumberFormatException e) {
+            cursor.setTimestampError(e);
+        }
+    }
+
+    private double parseDouble(int start, int end) {
+        if (isBlank(start, end)) {
+            return Double.NaN;
+        }
+        int i = start;
+        boolean negative = false;
+        byte first = buffer.get(i);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = -1;
+        for (; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (scale >= 0) {
+                    scale++;
+                }
+                if (mantissa >= MAX_EXACT_MANTISSA) {
+                    return parseDoubleSlow(start, end);
+                }
+            } else if (b == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                return parseDoubleSlow(start, end);
+            }
+        }
+        if (digits == 0 || scale >= POWERS_OF_TEN.length) {
+            return parseDoubleSlow(start, end);
+        }
+        double value = scale > 0 ? mantissa / POWERS_OF_TEN[scale] : mantissa;
+        return negative ? -value : value;
+    }
+
+    private double parseDoubleSlow(int start, int end) {
+        try {
+            return Double.parseDouble(toString(start, end));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    //same characters as Character.isWhitespace in the ASCII range, bytes above it are never blank
+    private boolean isBlank(int start, int end) {
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b != ' ' && (b < 0x09 || b > 0x0D) && (b < 0x1C || b > 0x1F)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String toString(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            bytes[i - start] = buffer.get(i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    //quoted values may continue on the next lines, so lines are fed to OpenCSV until the record is complete
+    private String[] parseIrregular(int lineStart, int lineEnd) throws IOException {
+        if (fallbackParser == null) {
+            fallbackParser = new CSVParserBuilder().withSeparator(',').build();
+        }
+        String[] result = fallbackParser.parseLineMulti(toString(lineStart, lineEnd));
+        skipTerminator(lineEnd);
+        while (fallbackParser.isPending()) {
+            int end = findLineEnd();
+            if (end < 0) {
+                throw new CsvMalformedLineException("Unterminated quoted field at end of CSV line", -1, null);
+            }
+            String[] next = fallbackParser.parseLineMulti(toString(buffer.position(), end));
+            skipTerminator(end);
+            String[] combined = new String[result.length + next.length];
+            System.arraycopy(result, 0, combined, 0, result.length);
+            System.arraycopy(next, 0, combined, result.length, next.length);
+            result = combined;
+        }
+        return result;
+    }
+
+    /**
+     * @return true when a line with quotes or escapes was read, its values may continue past the end of a chunk
+     */
+    public boolean hasIrregularLines() {
+        return irregularLines;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (inputStream != null) {
+            inputStream.close();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package parser;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Verdict and statistics of the file a candle cache was written from, readable without decoding the columns.
+ */
+@Getter
+@RequiredArgsConstructor
+public class CandleCacheFooter {
+
+    private final boolean valid;
+    private final long rowCount;
+    private final long expectedCount;
+    private final long totalViolations;
+    private final long firstTimestamp;
+    private final long lastTimestamp;
+    private final double minLow;
+    private final double maxHigh;
+    private final double volumeSum;
+    private final String sourceETag;
+    private final long sourceSize;
+
+    /**
+     * @return true if the cache was written from the object with this ETag and size
+     */
+    public boolean isWrittenFrom(String eTag, long size) {
+        return eTag != null && eTag.equals(sourceETag) && size == sourceSize;
+    }
+
+    @Override
+    public String toString() {
+        return (valid ? "valid" : "not valid") + ", rows = " + rowCount + ", violations = " + totalViolations
+                + ", " + firstTimestamp + " - " + lastTimestamp;
+    }
+}
@@ -0,0 +1,115 @@
+package parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a candle cache written by CandleCacheWriter from a memory mapped file. Every column is decoded sequentially
+ * into the cursor, so a validation of the cache goes through the same checks as the text without parsing it.
+ */
+public class CandleCacheReader implements CandleReader {
+
+    private final ByteBuffer buffer;
+    private final long rowCount;
+    private final int fieldCount;
+    private final int[] positions = new int[CandleCacheWriter.COLUMNS];
+    private final boolean[] doubles = new boolean[CandleCacheWriter.COLUMNS];
+    private final double[] divisors = new double[CandleCacheWriter.COLUMNS];
+    //running values of the delta encoded columns
+    private final long[] accumulators = new long[CandleCacheWriter.COLUMNS];
+    private final CandleCacheFooter footer;
+    private long row;
+
+    public CandleCacheReader(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            this.buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        int size = buffer.capacity();
+        if (size < CandleCacheWriter.HEADER_SIZE + CandleCacheWriter.TRAILER_SIZE
+                || buffer.getInt(0) != CandleCacheWriter.MAGIC || buffer.getInt(size - 4) != CandleCacheWriter.MAGIC) {
+            throw new IOException("Not a candle cache: " + file);
+        }
+        if (buffer.getInt(4) != CandleCacheWriter.VERSION) {
+            throw new IOException("Unknown candle cache version " + buffer.getInt(4) + ": " + file);
+        }
+        this.rowCount = buffer.getLong(8);
+        this.fieldCount = buffer.getInt(16);
+        for (int i = 0; i < CandleCacheWriter.COLUMNS; i++) {
+            int entry = CandleCacheWriter.HEADER_SIZE + i * CandleCacheWriter.DIRECTORY_ENTRY_SIZE;
+            doubles[i] = buffer.get(entry) == CandleCacheWriter.ENCODING_DOUBLE;
+            int scale = buffer.get(entry + 1);
+            divisors[i] = CandleCacheWriter.POWERS_OF_TEN[Math.max(0, scale)];
+            positions[i] = (int) buffer.getLong(entry + 8);
+        }
+        this.footer = readFooter((int) buffer.getLong(size - CandleCacheWriter.TRAILER_SIZE));
+    }
+
+    private CandleCacheFooter readFooter(int position) {
+        boolean valid = buffer.get(position) == 1;
+        int eTagLength = buffer.getShort(position + 73);
+        byte[] eTag = new byte[eTagLength];
+        for (int i = 0; i < eTagLength; i++) {
+            eTag[i] = buffer.get(position + 75 + i);
+        }
+        return new CandleCacheFooter(valid, buffer.getLong(position + 1), buffer.getLong(position + 9), buffer.getLong(position + 17),
+                buffer.getLong(position + 25), buffer.getLong(position + 33), buffer.getDouble(position + 41),
+                buffer.getDouble(position + 49), buffer.getDouble(position + 57), new String(eTag, StandardCharsets.UTF_8),
+                buffer.getLong(position + 65));
+    }
+
+    public CandleCacheFooter getFooter() {
+        return footer;
+    }
+
+    @Override
+    public boolean next(CandleCursor cursor) {
+        if (row >= rowCount) {
+            return false;
+        }
+        row++;
+        cursor.startRow();
+        accumulators[0] += getVarLong(0);
+        cursor.setTimestamp(accumulators[0]);
+        for (int i = 1; i < CandleCacheWriter.COLUMNS; i++) {
+            double value;
+            if (doubles[i]) {
+                value = buffer.getDouble(positions[i]);
+                positions[i] += 8;
+            } else {
+                accumulators[i] += getVarLong(i);
+                value = accumulators[i] / divisors[i];
+            }
+            if (i < fieldCount) {
+                cursor.setPrice(i, value);
+            }
+        }
+        cursor.setFieldCount(fieldCount);
+        return true;
+    }
+
+    private long getVarLong(int column) {
+        int position = positions[column];
+        long zigzag = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get(position++);
+            zigzag |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        positions[column] = position;
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    @Override
+    public void close() {
+        //the mapping is released with the buffer
+    }
+}
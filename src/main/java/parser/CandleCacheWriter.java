@@ -0,0 +1,221 @@
+package parser;
+
+import model.ValidationResult;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Collects the rows of a file while it's validated and writes them as a columnar candle cache.
+ * <p>
+ * Layout, little endian: header (magic, version, row count, field count), a directory of the 6 columns
+ * (encoding, scale, offset, length), the columns, the footer (see CandleCacheFooter) and a trailer with the footer offset.
+ * Timestamps are zigzag varint deltas. A value column is stored as zigzag varint deltas of the values scaled by
+ * 10^scale when every value is a decimal with at most 8 digits after the point, otherwise as raw doubles.
+ * Decoding gives the same doubles as parsing the text, so a validation of the cache has the same verdict.
+ * <p>
+ * Only files where every row has a timestamp and the same number of fields can be cached.
+ */
+public class CandleCacheWriter {
+
+    static final int MAGIC = 0x31435643;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    static final int COLUMNS = 6;
+    static final int DIRECTORY_ENTRY_SIZE = 24;
+    static final int TRAILER_SIZE = 12;
+    static final byte ENCODING_DELTA_VARINT = 0;
+    static final byte ENCODING_DOUBLE = 1;
+    static final double[] POWERS_OF_TEN = {1d, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8};
+    private static final double MAX_EXACT = 1L << 53;
+
+    private long[] timestamps = new long[1024];
+    private final double[][] values = new double[COLUMNS - 1][1024];
+    private int rowCount;
+    private int fieldCount = -1;
+    private boolean cacheable = true;
+
+    /**
+     * Drops the collected rows, e.g. before the file is read again after a failed attempt.
+     */
+    public void reset() {
+        rowCount = 0;
+        fieldCount = -1;
+        cacheable = true;
+    }
+
+    public void add(CandleCursor cursor) {
+        if (!cacheable) {
+            return;
+        }
+        if (!cursor.isTimestampValid() || (fieldCount >= 0 && fieldCount != cursor.getFieldCount()) || rowCount == Integer.MAX_VALUE) {
+            cacheable = false;
+            return;
+        }
+        fieldCount = cursor.getFieldCount();
+        if (rowCount == timestamps.length) {
+            int capacity = timestamps.length * 2;
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            for (int i = 0; i < values.length; i++) {
+                values[i] = Arrays.copyOf(values[i], capacity);
+            }
+        }
+        timestamps[rowCount] = cursor.getTimestamp();
+        values[0][rowCount] = cursor.getOpen();
+        values[1][rowCount] = cursor.getHigh();
+        values[2][rowCount] = cursor.getLow();
+        values[3][rowCount] = cursor.getClose();
+        values[4][rowCount] = cursor.getVolume();
+        rowCount++;
+    }
+
+    public boolean isCacheable() {
+        return cacheable && rowCount > 0;
+    }
+
+    /**
+     * Writes the cache through a temp file next to it, so readers never see a partial file.
+     */
+    public void write(Path file, ValidationResult result, String sourceETag, long sourceSize) throws IOException {
+        ByteBuffer[] columns = new ByteBuffer[COLUMNS];
+        byte[] scales = new byte[COLUMNS];
+        columns[0] = encodeTimestamps();
+        for (int i = 0; i < values.length; i++) {
+            int scale = getScale(values[i]);
+            scales[i + 1] = (byte) scale;
+            columns[i + 1] = scale >= 0 ? encodeScaled(values[i], scale) : encodeDoubles(values[i]);
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + COLUMNS * DIRECTORY_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putLong(rowCount).putInt(fieldCount).putInt(COLUMNS);
+        long offset = header.capacity();
+        for (int i = 0; i < COLUMNS; i++) {
+            header.put(scales[i] >= 0 || i == 0 ? ENCODING_DELTA_VARINT : ENCODING_DOUBLE).put(scales[i]).putShort((short) 0).putInt(0);
+            header.putLong(offset).putLong(columns[i].remaining());
+            offset += columns[i].remaining();
+        }
+        header.flip();
+        ByteBuffer footer = encodeFooter(result, sourceETag, sourceSize);
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN).putLong(offset).putInt(MAGIC);
+        trailer.flip();
+
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tempFile = Files.createTempFile(parent, "candle-cache", ".tmp");
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+            writeFully(channel, header);
+            for (ByteBuffer column : columns) {
+                writeFully(channel, column);
+            }
+            writeFully(channel, footer);
+            writeFully(channel, trailer);
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    //the smallest scale giving back every value exactly, -1 if there is none (NaN, too many digits or too large)
+    private int getScale(double[] column) {
+        int scale = 0;
+        for (int row = 0; row < rowCount; row++) {
+            double value = column[row];
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                return -1;
+            }
+            while (!isExact(value, scale)) {
+                if (++scale >= POWERS_OF_TEN.length) {
+                    return -1;
+                }
+            }
+        }
+        return scale;
+    }
+
+    private static boolean isExact(double value, int scale) {
+        double scaled = value * POWERS_OF_TEN[scale];
+        return Math.abs(scaled) < MAX_EXACT && Math.round(scaled) / POWERS_OF_TEN[scale] == value;
+    }
+
+    private ByteBuffer encodeTimestamps() {
+        ByteBuffer buffer = ByteBuffer.allocate(rowCount * 10);
+        long previous = 0;
+        for (int row = 0; row < rowCount; row++) {
+            putVarLong(buffer, timestamps[row] - previous);
+            previous = timestamps[row];
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private ByteBuffer encodeScaled(double[] column, int scale) {
+        ByteBuffer buffer = ByteBuffer.allocate(rowCount * 10);
+        long previous = 0;
+        for (int row = 0; row < rowCount; row++) {
+            long scaled = Math.round(column[row] * POWERS_OF_TEN[scale]);
+            putVarLong(buffer, scaled - previous);
+            previous = scaled;
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private ByteBuffer encodeDoubles(double[] column) {
+        ByteBuffer buffer = ByteBuffer.allocate(rowCount * 8).order(ByteOrder.LITTLE_ENDIAN);
+        for (int row = 0; row < rowCount; row++) {
+            buffer.putDouble(column[row]);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    //zigzag, so small negative deltas take one byte too
+    private static void putVarLong(ByteBuffer buffer, long value) {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            buffer.put((byte) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        buffer.put((byte) zigzag);
+    }
+
+    private ByteBuffer encodeFooter(ValidationResult result, String sourceETag, long sourceSize) {
+        double minLow = Double.NaN;
+        double maxHigh = Double.NaN;
+        double volumeSum = 0;
+        for (int row = 0; row < rowCount; row++) {
+            minLow = Double.isNaN(minLow) || values[2][row] < minLow ? values[2][row] : minLow;
+            maxHigh = Double.isNaN(maxHigh) || values[1][row] > maxHigh ? values[1][row] : maxHigh;
+            if (!Double.isNaN(values[4][row])) {
+                volumeSum += values[4][row];
+            }
+        }
+        byte[] eTag = sourceETag == null ? new byte[0] : sourceETag.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 8 * 9 + 2 + eTag.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte) (result.isValid() ? 1 : 0))
+                .putLong(result.getRowCount())
+                .putLong(result.getExpectedCount())
+                .putLong(result.getTotalViolations())
+                .putLong(timestamps[0])
+                .putLong(timestamps[rowCount - 1])
+                .putDouble(minLow)
+                .putDouble(maxHigh)
+                .putDouble(volumeSum)
+                .putLong(sourceSize)
+                .putShort((short) eTag.length)
+                .put(eTag);
+        buffer.flip();
+        return buffer;
+    }
+}
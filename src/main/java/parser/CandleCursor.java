@@ -0,0 +1,128 @@
+package parser;
+
+import lombok.Getter;
+
+/**
+ * Mutable candle row, one instance is reused for all rows of a file so parsing doesn't allocate per row.
+ * Columns: timestamp, open, high, low, close, volume. Missing or not numeric prices are NaN.
+ */
+@Getter
+public class CandleCursor {
+
+    private long rowNumber = -1;
+    private int fieldCount;
+    private boolean timestampBlank;
+    private long timestamp;
+    //not null only when the timestamp is not a number, created on the error path only
+    private NumberFormatException timestampError;
+    private double open;
+    private double high;
+    private double low;
+    private double close;
+    private double volume;
+
+    void startRow() {
+        rowNumber++;
+        fieldCount = 0;
+        timestampBlank = false;
+        timestamp = 0;
+        timestampError = null;
+        open = Double.NaN;
+        high = Double.NaN;
+        low = Double.NaN;
+        close = Double.NaN;
+        volume = Double.NaN;
+    }
+
+    void setTimestampBlank() {
+        this.timestampBlank = true;
+    }
+
+    void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    void setTimestampError(NumberFormatException timestampError) {
+        this.timestampError = timestampError;
+    }
+
+    void setFieldCount(int fieldCount) {
+        this.fieldCount = fieldCount;
+    }
+
+    void setPrice(int column, double value) {
+        switch (column) {
+            case 1:
+                open = value;
+                break;
+            case 2:
+                high = value;
+                break;
+            case 3:
+                low = value;
+                break;
+            case 4:
+                close = value;
+                break;
+            case 5:
+                volume = value;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @return a copy of the current row, the cursor itself is reused for the next rows
+     */
+    public CandleCursor copy() {
+        CandleCursor result = new CandleCursor();
+        result.rowNumber = rowNumber;
+        result.fieldCount = fieldCount;
+        result.timestampBlank = timestampBlank;
+        result.timestamp = timestamp;
+        result.timestampError = timestampError;
+        result.open = open;
+        result.high = high;
+        result.low = low;
+        result.close = close;
+        result.volume = volume;
+        return result;
+    }
+
+    public boolean isTimestampValid() {
+        return !timestampBlank && timestampError == null;
+    }
+
+    /**
+     * Fills the cursor from a row split by OpenCSV, used by the OpenCSV reader and for irregular lines.
+     */
+    void set(String[] row) {
+        startRow();
+        fieldCount = row.length;
+        String timestampStr = row.length > 0 ? row[0] : null;
+        if (timestampStr == null || timestampStr.isBlank()) {
+            timestampBlank = true;
+        } else {
+            try {
+                timestamp = Long.parseLong(timestampStr);
+            } catch (NumberFormatException e) {
+                timestampError = e;
+            }
+        }
+        for (int i = 1; i < row.length && i <= 5; i++) {
+            setPrice(i, parseDouble(row[i]));
+        }
+    }
+
+    private static double parseDouble(String str) {
+        if (str == null || str.isBlank()) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(str);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+}
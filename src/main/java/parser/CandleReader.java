@@ -0,0 +1,14 @@
+package parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+public interface CandleReader extends Closeable {
+
+    /**
+     * Reads the next row into the cursor.
+     *
+     * @return false when there are no more rows
+     */
+    boolean next(CandleCursor cursor) throws IOException;
+}
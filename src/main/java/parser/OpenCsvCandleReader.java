@@ -0,0 +1,42 @@
+package parser;
+
+import com.opencsv.CSVParser;
+import com.opencsv.CSVParserBuilder;
+import com.opencsv.CSVReader;
+import com.opencsv.CSVReaderBuilder;
+import com.opencsv.exceptions.CsvValidationException;
+
+import java.io.IOException;
+import java.io.Reader;
+
+public class OpenCsvCandleReader implements CandleReader {
+
+    private final CSVReader csvReader;
+
+    public OpenCsvCandleReader(Reader reader) {
+        CSVParser parser = new CSVParserBuilder().withSeparator(',').build();
+        this.csvReader = new CSVReaderBuilder(reader)
+                .withCSVParser(parser)
+                .build();
+    }
+
+    @Override
+    public boolean next(CandleCursor cursor) throws IOException {
+        String[] row;
+        try {
+            row = csvReader.readNext();
+        } catch (CsvValidationException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        if (row == null) {
+            return false;
+        }
+        cursor.set(row);
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        csvReader.close();
+    }
+}
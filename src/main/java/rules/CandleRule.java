@@ -0,0 +1,40 @@
+package rules;
+
+import parser.CandleCursor;
+
+/**
+ * Check applied to every row in the same pass as count and order checks.
+ * Rules may keep state between rows, a new instance is created for every file.
+ */
+public interface CandleRule {
+
+    String getName();
+
+    /**
+     * Called for every row with a valid timestamp.
+     *
+     * @return false when the row breaks the rule, details are then in getDetails()
+     */
+    boolean check(CandleCursor cursor);
+
+    /**
+     * Called when a file is scanned in chunks, with the last valid timestamp of one chunk and the first one of the next.
+     *
+     * @return false when the boundary breaks the rule, details are then in getDetails()
+     */
+    default boolean checkBoundary(long lastTimestamp, long firstTimestamp) {
+        return true;
+    }
+
+    /**
+     * False when the check of a row depends on more than the previous valid row, files are then scanned in one pass.
+     */
+    default boolean isChunkable() {
+        return true;
+    }
+
+    /**
+     * Details of the last failed check, built only when the violation is recorded.
+     */
+    String getDetails();
+}
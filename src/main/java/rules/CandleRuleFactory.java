@@ -0,0 +1,100 @@
+package rules;
+
+import lombok.extern.apachecommons.CommonsLog;
+import service.TimeService;
+
+import java.time.DayOfWeek;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Creates the rules listed in candle-validation.rules, a new set for every file as rules keep state.
+ */
+@CommonsLog
+public class CandleRuleFactory {
+
+    private final List<String> ruleNames;
+    private final long intervalMillis;
+    private final ZoneId zoneId;
+    private final LocalTime sessionStart;
+    private final LocalTime sessionEnd;
+    private final List<DayOfWeek> weekEndDays;
+    private final double spikeSigmas;
+    private final int spikeWarmUpRows;
+    private final boolean chunkable;
+
+    public CandleRuleFactory(Properties appProps, TimeService timeService) {
+        this.ruleNames = getRuleNames(appProps);
+        this.intervalMillis = Long.parseLong(appProps.getProperty("candle-validation.rules.interval.millis", "60000").trim());
+        this.zoneId = getSessionZone(appProps, timeService);
+        this.sessionStart = LocalTime.parse(appProps.getProperty("candle-validation.rules.session.start", "09:15").trim());
+        this.sessionEnd = LocalTime.parse(appProps.getProperty("candle-validation.rules.session.end", "15:30").trim());
+        this.weekEndDays = timeService != null ? timeService.getWeekEndDays() : Collections.emptyList();
+        this.spikeSigmas = Double.parseDouble(appProps.getProperty("candle-validation.rules.spike.sigmas", "6").trim());
+        this.spikeWarmUpRows = Math.max(2, Integer.parseInt(appProps.getProperty("candle-validation.rules.spike.warm_up_rows", "30").trim()));
+        log.info("Enabled rules: " + ruleNames + ", session zone = " + zoneId);
+        //fails fast on unknown rule names
+        this.chunkable = create().isChunkable();
+    }
+
+    /**
+     * @return false when a rule needs all the rows before, files can't be split into chunks then
+     */
+    public boolean isChunkable() {
+        return chunkable;
+    }
+
+    //the session is set in exchange time, the zone of the report log is only the fallback
+    private static ZoneId getSessionZone(Properties appProps, TimeService timeService) {
+        String prop = appProps.getProperty("candle-validation.rules.session.zone");
+        if (prop != null && !prop.isBlank()) {
+            return ZoneId.of(prop.trim());
+        }
+        return timeService != null ? timeService.getZoneId() : ZoneId.of("UTC+05:30");
+    }
+
+    private static List<String> getRuleNames(Properties appProps) {
+        String prop = appProps.getProperty("candle-validation.rules");
+        List<String> result = new ArrayList<>();
+        if (prop == null || prop.isBlank()) {
+            return result;
+        }
+        for (String str : prop.split(",")) {
+            str = str.trim().toLowerCase(Locale.US);
+            if (!str.isBlank()) {
+                result.add(str);
+            }
+        }
+        return result;
+    }
+
+    public CandleRules create() {
+        CandleRule[] rules = new CandleRule[ruleNames.size()];
+        for (int i = 0; i < rules.length; i++) {
+            rules[i] = createRule(ruleNames.get(i));
+        }
+        return new CandleRules(rules);
+    }
+
+    private CandleRule createRule(String name) {
+        switch (name) {
+            case "ohlc":
+                return new OhlcConsistencyRule();
+            case "volume":
+                return new VolumeRule();
+            case "interval":
+                return new IntervalRule(intervalMillis);
+            case "session":
+                return new SessionRule(zoneId, sessionStart, sessionEnd, weekEndDays);
+            case "spike":
+                return new PriceSpikeRule(spikeSigmas, spikeWarmUpRows);
+            default:
+                throw new IllegalArgumentException("Unknown candle rule \"" + name + "\"");
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package rules;
+
+import model.ValidationResult;
+import model.Violation;
+import parser.CandleCursor;
+
+/**
+ * Rules enabled for one file, applied row by row. Every broken rule is counted,
+ * details are built only while the result has room for them.
+ */
+public class CandleRules {
+
+    private final CandleRule[] rules;
+
+    CandleRules(CandleRule[] rules) {
+        this.rules = rules;
+    }
+
+    public boolean isEmpty() {
+        return rules.length == 0;
+    }
+
+    public void check(CandleCursor cursor, long row, ValidationResult result) {
+        for (CandleRule rule : rules) {
+            if (!rule.check(cursor) && result.countRuleViolation(rule.getName())) {
+                result.addViolation(new Violation(row, Violation.Type.RULE, rule.getName(), rule.getDetails()));
+            }
+        }
+    }
+
+    public boolean isChunkable() {
+        for (CandleRule rule : rules) {
+            if (!rule.isChunkable()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks the first valid row of a chunk as a single pass would check it after the last valid row of the previous
+     * chunk. The rules of a new set have no previous row, so the set is used for one chunk only.
+     *
+     * @param hasLast false when there are no valid rows before the chunk
+     */
+    public void checkFirst(boolean hasLast, long lastTimestamp, CandleCursor cursor, long row, ValidationResult result) {
+        for (CandleRule rule : rules) {
+            boolean valid = (!hasLast || rule.checkBoundary(lastTimestamp, cursor.getTimestamp())) && rule.check(cursor);
+            if (!valid && result.countRuleViolation(rule.getName())) {
+                result.addViolation(new Violation(row, Violation.Type.RULE, rule.getName(), rule.getDetails()));
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package rules;
+
+import parser.CandleCursor;
+
+/**
+ * Candles have to follow each other with a fixed interval, reports gaps and duplicates.
+ */
+public class IntervalRule implements CandleRule {
+
+    private final long intervalMillis;
+    private boolean hasPrevious;
+    private long previous;
+    private long failedLast;
+    private long failedFirst;
+
+    public IntervalRule(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    @Override
+    public String getName() {
+        return "interval";
+    }
+
+    @Override
+    public boolean check(CandleCursor cursor) {
+        long current = cursor.getTimestamp();
+        boolean result = !hasPrevious || checkBoundary(previous, current);
+        hasPrevious = true;
+        previous = current;
+        return result;
+    }
+
+    @Override
+    public boolean checkBoundary(long lastTimestamp, long firstTimestamp) {
+        if (firstTimestamp - lastTimestamp == intervalMillis) {
+            return true;
+        }
+        failedLast = lastTimestamp;
+        failedFirst = firstTimestamp;
+        return false;
+    }
+
+    @Override
+    public String getDetails() {
+        long delta = failedFirst - failedLast;
+        if (delta == 0) {
+            return "duplicate candle " + failedFirst;
+        }
+        if (delta > intervalMillis && delta % intervalMillis == 0) {
+            return "gap of " + (delta / intervalMillis - 1) + " candles after " + failedLast;
+        }
+        return "irregular interval " + delta + " ms after " + failedLast;
+    }
+}
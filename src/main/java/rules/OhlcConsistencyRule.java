@@ -0,0 +1,31 @@
+package rules;
+
+import parser.CandleCursor;
+
+public class OhlcConsistencyRule implements CandleRule {
+
+    private double open;
+    private double high;
+    private double low;
+    private double close;
+
+    @Override
+    public String getName() {
+        return "ohlc";
+    }
+
+    @Override
+    public boolean check(CandleCursor cursor) {
+        open = cursor.getOpen();
+        high = cursor.getHigh();
+        low = cursor.getLow();
+        close = cursor.getClose();
+        //comparisons with NaN are false, so missing prices are reported too
+        return low <= open && low <= close && open <= high && close <= high;
+    }
+
+    @Override
+    public String getDetails() {
+        return "open=" + open + " high=" + high + " low=" + low + " close=" + close;
+    }
+}
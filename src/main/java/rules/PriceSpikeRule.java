@@ -0,0 +1,68 @@
+package rules;
+
+import parser.CandleCursor;
+
+/**
+ * Close to close returns must stay inside the N-sigma band of the returns seen before in the file.
+ * Mean and variance are kept with Welford's algorithm, so memory is constant.
+ */
+public class PriceSpikeRule implements CandleRule {
+
+    private final double sigmas;
+    private final int warmUpRows;
+    private double previousClose = Double.NaN;
+    private long count;
+    private double mean;
+    private double m2;
+    private double failedPrevious;
+    private double failedClose;
+
+    public PriceSpikeRule(double sigmas, int warmUpRows) {
+        this.sigmas = sigmas;
+        this.warmUpRows = warmUpRows;
+    }
+
+    @Override
+    public String getName() {
+        return "spike";
+    }
+
+    @Override
+    public boolean check(CandleCursor cursor) {
+        double close = cursor.getClose();
+        if (Double.isNaN(close)) {
+            return true;
+        }
+        double previous = previousClose;
+        previousClose = close;
+        if (Double.isNaN(previous) || previous == 0) {
+            return true;
+        }
+        double change = (close - previous) / previous;
+        boolean result = true;
+        if (count >= warmUpRows) {
+            double sigma = Math.sqrt(m2 / (count - 1));
+            if (Math.abs(change - mean) > sigmas * sigma) {
+                result = false;
+                failedPrevious = previous;
+                failedClose = close;
+            }
+        }
+        count++;
+        double delta = change - mean;
+        mean += delta / count;
+        m2 += delta * (change - mean);
+        return result;
+    }
+
+    //the band is made of all the returns before the row
+    @Override
+    public boolean isChunkable() {
+        return false;
+    }
+
+    @Override
+    public String getDetails() {
+        return "close " + failedClose + " after " + failedPrevious + " is beyond " + sigmas + " sigma";
+    }
+}
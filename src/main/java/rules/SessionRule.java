@@ -0,0 +1,68 @@
+package rules;
+
+import parser.CandleCursor;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.zone.ZoneRules;
+import java.util.List;
+
+/**
+ * Candle timestamps have to be inside the trading session on a working day.
+ */
+public class SessionRule implements CandleRule {
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private final ZoneRules zoneRules;
+    //offset of a fixed offset zone, so rows don't need a zone lookup
+    private final Long fixedOffsetMillis;
+    private final long sessionStartMillis;
+    private final long sessionEndMillis;
+    private final List<DayOfWeek> weekEndDays;
+    private long failedTimestamp;
+    private long failedMillisOfDay;
+    private DayOfWeek failedDay;
+
+    public SessionRule(ZoneId zoneId, LocalTime sessionStart, LocalTime sessionEnd, List<DayOfWeek> weekEndDays) {
+        this.zoneRules = zoneId.getRules();
+        this.fixedOffsetMillis = zoneRules.isFixedOffset() ? zoneRules.getOffset(Instant.EPOCH).getTotalSeconds() * 1000L : null;
+        this.sessionStartMillis = sessionStart.toNanoOfDay() / 1_000_000;
+        this.sessionEndMillis = sessionEnd.toNanoOfDay() / 1_000_000;
+        this.weekEndDays = weekEndDays;
+    }
+
+    @Override
+    public String getName() {
+        return "session";
+    }
+
+    @Override
+    public boolean check(CandleCursor cursor) {
+        long timestamp = cursor.getTimestamp();
+        long offsetMillis = fixedOffsetMillis != null
+                ? fixedOffsetMillis
+                : zoneRules.getOffset(Instant.ofEpochMilli(timestamp)).getTotalSeconds() * 1000L;
+        long localMillis = timestamp + offsetMillis;
+        long millisOfDay = Math.floorMod(localMillis, MILLIS_PER_DAY);
+        //1970-01-01 was a Thursday
+        DayOfWeek day = DayOfWeek.of((int) Math.floorMod(Math.floorDiv(localMillis, MILLIS_PER_DAY) + 3, 7L) + 1);
+        if (!weekEndDays.contains(day) && millisOfDay >= sessionStartMillis && millisOfDay < sessionEndMillis) {
+            return true;
+        }
+        failedTimestamp = timestamp;
+        failedMillisOfDay = millisOfDay;
+        failedDay = day;
+        return false;
+    }
+
+    @Override
+    public String getDetails() {
+        if (weekEndDays.contains(failedDay)) {
+            return "candle " + failedTimestamp + " is on " + failedDay;
+        }
+        return "candle " + failedTimestamp + " at " + LocalTime.ofNanoOfDay(failedMillisOfDay * 1_000_000) + " is outside of the session";
+    }
+}
@@ -0,0 +1,24 @@
+package rules;
+
+import parser.CandleCursor;
+
+public class VolumeRule implements CandleRule {
+
+    private double volume;
+
+    @Override
+    public String getName() {
+        return "volume";
+    }
+
+    @Override
+    public boolean check(CandleCursor cursor) {
+        volume = cursor.getVolume();
+        return volume >= 0;
+    }
+
+    @Override
+    public String getDetails() {
+        return "volume=" + volume;
+    }
+}
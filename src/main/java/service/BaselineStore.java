@@ -0,0 +1,129 @@
+package service;
+
+import anomaly.AnomalyDetector;
+import anomaly.AnomalyDetectorFactory;
+import anomaly.AnomalyScan;
+import anomaly.TokenBaseline;
+import lombok.extern.apachecommons.CommonsLog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Anomaly baselines of every token, carried between runs in candle-validation.anomaly.baseline_file.
+ * Baselines are kept serialized, a few hundred bytes to a few KB per token, and the file is rewritten on close.
+ */
+@CommonsLog
+public class BaselineStore implements AutoCloseable {
+
+    private static final int MAGIC = 0x43564253;
+    private static final int VERSION = 1;
+
+    private final boolean enabled;
+    private final Path file;
+    private final double halfLifeDays;
+    private final AnomalyDetectorFactory detectorFactory;
+    //token -> serialized baseline
+    private final Map<String, byte[]> baselines = new ConcurrentHashMap<>();
+
+    public BaselineStore(Properties appProps) throws IOException {
+        this.enabled = Boolean.parseBoolean(appProps.getProperty("candle-validation.anomaly.enabled", "false").trim());
+        this.file = Path.of(appProps.getProperty("candle-validation.anomaly.baseline_file", "./token-baselines.bin").trim());
+        this.halfLifeDays = Double.parseDouble(appProps.getProperty("candle-validation.anomaly.half_life_days", "20").trim());
+        this.detectorFactory = enabled ? new AnomalyDetectorFactory(appProps) : null;
+        if (enabled) {
+            load();
+        }
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException("Baseline file " + file + " has unknown format");
+            }
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                String token = input.readUTF();
+                byte[] bytes = new byte[input.readInt()];
+                input.readFully(bytes);
+                baselines.put(token, bytes);
+            }
+        }
+        log.info("Token baselines loaded = " + baselines.size());
+    }
+
+    /**
+     * @return the anomaly detector of a file of the token, null when anomaly detection is disabled
+     */
+    public AnomalyDetector createDetector(String token) throws IOException {
+        if (!enabled) {
+            return null;
+        }
+        byte[] bytes = baselines.get(token.trim());
+        return detectorFactory.create(bytes == null ? null : TokenBaseline.fromBytes(bytes));
+    }
+
+    /**
+     * Adds the day of the token to its baseline.
+     */
+    public void merge(String token, LocalDate day, AnomalyScan scan) throws IOException {
+        if (!enabled) {
+            return;
+        }
+        try {
+            baselines.compute(token.trim(), (key, bytes) -> {
+                try {
+                    TokenBaseline baseline = bytes == null ? new TokenBaseline() : TokenBaseline.fromBytes(bytes);
+                    return baseline.merge(scan, day.toEpochDay(), halfLifeDays) ? baseline.toBytes() : bytes;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        save();
+    }
+
+    /**
+     * Writes the baselines through a temp file, so a failed run can't corrupt them.
+     */
+    public void save() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tempFile = Files.createTempFile(parent, "token-baselines", ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(baselines.size());
+            for (Map.Entry<String, byte[]> entry : baselines.entrySet()) {
+                output.writeUTF(entry.getKey());
+                output.writeInt(entry.getValue().length);
+                output.write(entry.getValue());
+            }
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("Token baselines saved = " + baselines.size());
+    }
+}
@@ -0,0 +1,177 @@
+package service;
+
+import lombok.extern.apachecommons.CommonsLog;
+import model.TokenValidationResult;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Validates many tokens in one run, sharing the storage and webhook clients. Every token runs on its own virtual thread,
+ * at most candle-validation.io.max_concurrency tokens at once; the threads of a run end with it.
+ */
+@CommonsLog
+public class BatchValidationService {
+
+    private final CloudStorageClient cloudStorageClient;
+    private final TokenValidationService tokenValidationService;
+    private final String tokenManifest;
+    //tokens validated at once, each one waits for S3 most of the time
+    private final int maxInFlight;
+    private final long progressIntervalSec;
+
+    public BatchValidationService(Properties appProps, CloudStorageClient cloudStorageClient, TokenValidationService tokenValidationService,
+                                  TaskExecutors taskExecutors) {
+        this.cloudStorageClient = cloudStorageClient;
+        this.tokenValidationService = tokenValidationService;
+        this.tokenManifest = appProps.getProperty("candle-validation.batch.token_manifest");
+        this.maxInFlight = taskExecutors.getIoConcurrency();
+        this.progressIntervalSec = Math.max(1, Long.parseLong(appProps.getProperty("candle-validation.range.progress_interval_sec", "30").trim()));
+    }
+
+    public List<String> getTokens() throws IOException {
+        if (tokenManifest == null || tokenManifest.isBlank()) {
+            return cloudStorageClient.listTokens();
+        }
+        List<String> tokens = new ArrayList<>();
+        for (String line : Files.readAllLines(Path.of(tokenManifest.trim()), StandardCharsets.UTF_8)) {
+            String token = line.trim();
+            if (!token.isBlank() && !token.startsWith("#")) {
+                tokens.add(token);
+            }
+        }
+        log.info("Tokens read from manifest " + tokenManifest + " = " + tokens.size());
+        return tokens;
+    }
+
+    public List<TokenValidationResult> validateAll() throws Exception {
+        List<String> tokens = getTokens();
+        log.info("Batch validation of " + tokens.size() + " tokens, " + maxInFlight + " at once");
+        tokenValidationService.resolveExistingFiles(tokens);
+        List<TokenValidationResult> results = new ArrayList<>(tokens.size());
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        try (ExecutorService executor = TaskExecutors.newVirtualThreadExecutor("token")) {
+            List<Future<TokenValidationResult>> futures = new ArrayList<>(tokens.size());
+            for (String token : tokens) {
+                inFlight.acquire();
+                futures.add(executor.submit(() -> {
+                    try {
+                        return tokenValidationService.validate(token);
+                    } finally {
+                        inFlight.release();
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    results.add(new TokenValidationResult(tokens.get(i), null, TokenValidationResult.Status.ERROR, String.valueOf(e.getCause()), null));
+                }
+            }
+        }
+        logSummary(results);
+        return results;
+    }
+
+    /**
+     * Validates every (token, day) pair. Existence of the files of all days is resolved first, with one listing per
+     * token folder, and files are streamed, so fetching, parsing and validating overlap.
+     * The days of a token are validated one after another in date order, on one virtual thread per token, so every day
+     * is checked against the state and baseline of the day before it; tokens run max_concurrency at once.
+     * Only failed results are kept, progress and throughput are logged every progress_interval_sec.
+     *
+     * @return results which are not SUCCESS
+     */
+    public List<TokenValidationResult> validateRange(List<LocalDate> days) throws Exception {
+        List<String> tokens = getTokens();
+        List<String> fileNames = new ArrayList<>(days.size());
+        for (LocalDate day : new TreeSet<>(days)) {
+            fileNames.add(TimeService.getFileName(day));
+        }
+        Progress progress = new Progress((long) tokens.size() * fileNames.size());
+        log.info("Range validation of " + tokens.size() + " tokens for " + fileNames.size() + " days, " + maxInFlight + " tokens at once");
+        tokenValidationService.resolveExistingFiles(tokens, fileNames);
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        reporter.scheduleAtFixedRate(progress::log, progressIntervalSec, progressIntervalSec, TimeUnit.SECONDS);
+        //bounds the started tokens, so tasks aren't queued for all tokens at once
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        Queue<TokenValidationResult> failures = new ConcurrentLinkedQueue<>();
+        try (ExecutorService executor = TaskExecutors.newVirtualThreadExecutor("token")) {
+            for (String token : tokens) {
+                inFlight.acquire();
+                executor.execute(() -> {
+                    try {
+                        for (String fileName : fileNames) {
+                            TokenValidationResult result = tokenValidationService.validate(token, fileName);
+                            progress.add(result);
+                            if (!result.isSuccess()) {
+                                failures.add(result);
+                            }
+                        }
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+            log.info("Waiting for the last validations, in progress = " + (maxInFlight - inFlight.availablePermits()));
+        } finally {
+            reporter.shutdownNow();
+        }
+        progress.log();
+        List<TokenValidationResult> results = new ArrayList<>(failures);
+        logSummary(results);
+        return results;
+    }
+
+    private static void logSummary(List<TokenValidationResult> results) {
+        Map<TokenValidationResult.Status, Integer> counts = new EnumMap<>(TokenValidationResult.Status.class);
+        long violations = 0;
+        for (TokenValidationResult result : results) {
+            counts.merge(result.getStatus(), 1, Integer::sum);
+            if (result.getValidationResult() != null) {
+                violations += result.getValidationResult().getTotalViolations();
+            }
+            if (!result.isSuccess()) {
+                log.info("Not valid: " + result);
+            }
+        }
+        log.info("Batch validation summary: tokens = " + results.size() + ", " + counts + ", violations = " + violations);
+    }
+
+    //counters shared by the workers of a range validation
+    private static class Progress {
+        private final long total;
+        private final long startNanos = System.nanoTime();
+        private final AtomicLong done = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong rows = new AtomicLong();
+
+        private Progress(long total) {
+            this.total = total;
+        }
+
+        private void add(TokenValidationResult result) {
+            done.incrementAndGet();
+            if (!result.isSuccess()) {
+                failed.incrementAndGet();
+            }
+            if (result.getValidationResult() != null) {
+                rows.addAndGet(result.getValidationResult().getRowCount());
+            }
+        }
+
+        private void log() {
+            long doneCount = done.get();
+            double seconds = Math.max(1e-3, (System.nanoTime() - startNanos) / 1e9);
+            log.info(String.format("Progress: %d of %d files (%.1f%%), not valid = %d, %.1f files/s, %.0f rows/s",
+                    doneCount, total, total > 0 ? doneCount * 100.0 / total : 100.0, failed.get(), doneCount / seconds, rows.get() / seconds));
+        }
+    }
+}
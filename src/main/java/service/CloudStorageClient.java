@@ -1,21 +1,68 @@
 package service;
 
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.client.builder.AwsClientBuilder;
 import com.amazonaws.regions.Regions;
+import com.amazonaws.retry.PredefinedRetryPolicies;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
+import com.amazonaws.services.s3.transfer.Upload;
 import exceptions.ValidationException;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
 import lombok.extern.apachecommons.CommonsLog;
-import org.apache.commons.io.FileUtils;
+import metrics.Counter;
+import metrics.MetricsRegistry;
+import model.ObjectVersion;
+import org.apache.commons.io.input.ProxyInputStream;
+import utilities.CompressionUtils;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Path;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 @CommonsLog
 public class CloudStorageClient {
@@ -27,39 +74,186 @@ public class CloudStorageClient {
     private final String verificationFolderName;
     private final String reportBucketName;
     private final String reportFolderName;
+    private final String verificationBaseFolderName;
     private final String fileExtension;
-    private final String token;
     private final String missingFileMessage;
 
 
     private final AmazonS3 s3client;
+    private final int requestConcurrency;
+    private final int uploadThreads;
+    private final long uploadPartSize;
+    private final long rangedGetThreshold;
+    private final long rangedGetPartSize;
+    private final int rangedGetConcurrency;
+    private final int rangedGetRetries;
+    private final long rangedGetBackoffMillis;
+    private final long hedgeAfterMillis;
+    //starts the hedged attempts of all downloads, null without hedging
+    private final ScheduledThreadPoolExecutor hedgeTimer;
+    //bucket existence is checked once per run
+    private final Map<String, Boolean> existingBuckets = new ConcurrentHashMap<>();
+    //keys resolved by resolveExistingFiles, the rest are checked one by one
+    private final Set<String> resolvedKeys = ConcurrentHashMap.newKeySet();
+    private final Map<String, ObjectVersion> existingObjects = new ConcurrentHashMap<>();
+    private final MetricsRegistry metricsRegistry;
+    private final TaskExecutors taskExecutors;
+    private final Counter bytesDownloaded;
 
-    public CloudStorageClient(Properties appProps, String fileExtension, String token) {
+    public CloudStorageClient(Properties appProps, String fileExtension, TaskExecutors taskExecutors, MetricsRegistry metricsRegistry) {
+        this(appProps, fileExtension, buildAmazonClient(appProps), taskExecutors, metricsRegistry);
+    }
+
+    /**
+     * Uses the given client, e.g. one pointing to a local MinIO or an in-process S3 stub.
+     */
+    public CloudStorageClient(Properties appProps, String fileExtension, AmazonS3 s3client, TaskExecutors taskExecutors,
+                              MetricsRegistry metricsRegistry) {
         this.verificationBucketName = appProps.getProperty("aws.s3.loaded.bucket.name");
         this.verificationFolderName = appProps.getProperty("aws.s3.loaded.folder.name");
+        this.verificationBaseFolderName = getBaseFolderName(verificationFolderName);
         this.reportBucketName = appProps.getProperty("aws.s3.report.bucket.name");
         this.reportFolderName = appProps.getProperty("aws.s3.report.folder.name");
         this.fileExtension = fileExtension;
-        this.token = token;
-        this.s3client = buildAmazonClient(appProps);
+        this.s3client = s3client;
+        this.requestConcurrency = getIntProperty(appProps, "aws.client.request_concurrency", 16);
+        this.uploadThreads = Math.max(1, getIntProperty(appProps, "aws.client.upload_threads", 4));
+        //S3 doesn't accept parts smaller than 5 MB
+        this.uploadPartSize = Math.max(5, getIntProperty(appProps, "aws.client.upload_part_size_mb", 8)) * 1024L * 1024;
+        //a range is read into an array, so neither can be 2 GB
+        this.rangedGetThreshold = Math.min(1024, Math.max(1, getIntProperty(appProps, "aws.client.ranged_get.threshold_mb", 32))) * 1024L * 1024;
+        this.rangedGetPartSize = Math.min(1024, Math.max(1, getIntProperty(appProps, "aws.client.ranged_get.part_size_mb", 8))) * 1024L * 1024;
+        this.rangedGetConcurrency = Math.max(1, getIntProperty(appProps, "aws.client.ranged_get.concurrency", 8));
+        this.rangedGetRetries = Math.max(0, getIntProperty(appProps, "aws.client.ranged_get.retries", 3));
+        this.rangedGetBackoffMillis = Math.max(1, getIntProperty(appProps, "aws.client.ranged_get.backoff_ms", 200));
+        this.hedgeAfterMillis = Math.max(0, getIntProperty(appProps, "aws.client.ranged_get.hedge_after_ms", 0));
+        this.hedgeTimer = hedgeAfterMillis > 0 ? createHedgeTimer() : null;
         this.missingFileMessage = appProps.getProperty("candle-validation.slack.missing_file_message");
+        this.metricsRegistry = metricsRegistry;
+        this.taskExecutors = taskExecutors;
+        this.bytesDownloaded = metricsRegistry.counter("candle_validation_s3_downloaded_bytes_total", "Bytes of verified files read from S3");
+    }
+
+    //a daemon thread, the client isn't closed. Timers of completed ranges are cancelled and removed
+    private static ScheduledThreadPoolExecutor createHedgeTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "s3-hedge-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    //counts and times every S3 call, failed ones by HTTP status. Calls wait for an I/O permit, which isn't timed
+    private <T> T request(String operation, Supplier<T> call) {
+        return taskExecutors.io(() -> timedRequest(operation, call));
+    }
+
+    private <T> T timedRequest(String operation, Supplier<T> call) {
+        long start = System.nanoTime();
+        metricsRegistry.counter("candle_validation_s3_requests_total", "S3 requests", "operation", operation).inc();
+        try {
+            return call.get();
+        } catch (RuntimeException e) {
+            String status = e instanceof AmazonServiceException ? String.valueOf(((AmazonServiceException) e).getStatusCode()) : "client";
+            metricsRegistry.counter("candle_validation_s3_errors_total", "Failed S3 requests", "operation", operation, "status", status).inc();
+            throw e;
+        } finally {
+            metricsRegistry.histogram("candle_validation_s3_request_seconds", "S3 request latency", "operation", operation).observeSince(start);
+        }
+    }
+
+    //a GET holds its I/O permit until the content is closed. Null when the object doesn't match the ETag constraint
+    private S3Object getObject(String operation, GetObjectRequest request) {
+        S3Object[] s3Object = new S3Object[1];
+        InputStream content = taskExecutors.ioStream(() -> {
+            s3Object[0] = timedRequest(operation, () -> s3client.getObject(request));
+            return s3Object[0] == null ? null : s3Object[0].getObjectContent();
+        });
+        if (s3Object[0] != null) {
+            s3Object[0].setObjectContent(content);
+        }
+        return s3Object[0];
     }
 
     private static AmazonS3 buildAmazonClient(Properties appProps) {
+        ClientConfiguration clientConfiguration = new ClientConfiguration()
+                .withMaxConnections(getIntProperty(appProps, "aws.client.max_connections", ClientConfiguration.DEFAULT_MAX_CONNECTIONS))
+                .withConnectionTimeout(getIntProperty(appProps, "aws.client.connection_timeout_ms", ClientConfiguration.DEFAULT_CONNECTION_TIMEOUT))
+                .withSocketTimeout(getIntProperty(appProps, "aws.client.socket_timeout_ms", ClientConfiguration.DEFAULT_SOCKET_TIMEOUT))
+                .withRetryPolicy(PredefinedRetryPolicies.getDefaultRetryPolicyWithCustomMaxRetries(
+                        getIntProperty(appProps, "aws.client.max_retries", PredefinedRetryPolicies.DEFAULT_MAX_ERROR_RETRY)));
         return AmazonS3ClientBuilder
                 .standard()
+                .withClientConfiguration(clientConfiguration)
                 .withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials(appProps.getProperty("aws.access.key"), appProps.getProperty("aws.secret.key"))))
                 .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(appProps.getProperty("aws.access.endpoint"), Regions.US_EAST_1.name()))
                 .build();
     }
 
+    private static int getIntProperty(Properties appProps, String name, int defaultValue) {
+        String prop = appProps.getProperty(name);
+        if (prop == null || prop.isBlank()) {
+            return defaultValue;
+        }
+        return Integer.parseInt(prop.trim());
+    }
+
+    //"/32/1-backup/2835/" -> "/32/1-backup/", the last folder is the token
+    private static String getBaseFolderName(String folderName) {
+        if (folderName == null) {
+            return "";
+        }
+        String trimmed = folderName.trim();
+        while (trimmed.endsWith("/")) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+        return trimmed.substring(0, trimmed.lastIndexOf('/') + 1);
+    }
+
     private boolean checkBucketAndObject(String bucket, String key) {
-        return (s3client.doesBucketExistV2(bucket) && s3client.doesObjectExist(bucket, key));
+        if (!bucketExists(bucket)) {
+            return false;
+        }
+        if (resolvedKeys.contains(key)) {
+            return existingObjects.containsKey(key);
+        }
+        //HEAD instead of doesObjectExist, so ETag and size are known without another request
+        //only a definite answer is remembered, a failed request is tried again by the next check
+        try {
+            ObjectMetadata metadata = request("head", () -> s3client.getObjectMetadata(bucket, key));
+            existingObjects.put(key, new ObjectVersion(bucket, key, metadata.getETag(), metadata.getContentLength()));
+            resolvedKeys.add(key);
+            return true;
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == 404) {
+                resolvedKeys.add(key);
+                return false;
+            }
+            throw e;
+        }
     }
 
-    private String createFilePath(String fileName) throws Exception {
+    private boolean bucketExists(String bucket) {
+        //not computeIfAbsent, which would block other buckets of the map during the request
+        Boolean exists = existingBuckets.get(bucket);
+        if (exists == null) {
+            exists = request("bucket_exists", () -> s3client.doesBucketExistV2(bucket));
+            existingBuckets.put(bucket, exists);
+        }
+        return exists;
+    }
+
+    private String getTokenFolderName(String token) {
+        return verificationBaseFolderName + token + "/";
+    }
+
+    private String createFilePath(String token, String fileName) throws Exception {
         StringBuilder path = new StringBuilder();
-        if (verificationFolderName != null) {
+        if (token != null && !token.isBlank()) {
+            path.append(getTokenFolderName(token));
+        } else if (verificationFolderName != null) {
             path.append(verificationFolderName);
         }
         if (fileName != null && !fileName.isBlank()) {
@@ -75,8 +269,8 @@ public class CloudStorageClient {
     }
 
     @SuppressWarnings("SameReturnValue")
-    public boolean isFileExisted(String key) throws Exception {
-        String path = createFilePath(key);
+    public boolean isFileExisted(String token, String key) throws Exception {
+        String path = createFilePath(token, key);
         log.info("AWS path to file = " + path);
         boolean result = checkBucketAndObject(verificationBucketName, path);
         if (!result) {
@@ -87,55 +281,538 @@ public class CloudStorageClient {
         return true;
     }
 
-    public File downloadFile(String fileName) throws Exception {
-        String path = createFilePath(fileName);
-        final S3Object s3Object = s3client.getObject(verificationBucketName, path);
+    /**
+     * Resolves which tokens have the file with concurrent listings, one per token folder,
+     * so later isFileExisted calls need no request.
+     *
+     * @return tokens having the file
+     */
+    public Set<String> resolveExistingFiles(Collection<String> tokens, String fileName) throws Exception {
+        return resolveExistingFiles(tokens, Collections.singletonList(fileName));
+    }
+
+    /**
+     * Resolves the files of many days at once: every token folder is listed once, from the first of the files to the
+     * last one, however many days there are.
+     *
+     * @return tokens having any of the files
+     */
+    public Set<String> resolveExistingFiles(Collection<String> tokens, Collection<String> fileNames) throws Exception {
+        Set<String> result = ConcurrentHashMap.newKeySet();
+        if (!bucketExists(verificationBucketName)) {
+            return result;
+        }
+        //listings run on virtual threads, request_concurrency of them at once
+        Semaphore listings = new Semaphore(requestConcurrency);
+        try (ExecutorService executor = TaskExecutors.newVirtualThreadExecutor("s3-list")) {
+            List<Future<?>> futures = new ArrayList<>(tokens.size());
+            for (String token : tokens) {
+                listings.acquire();
+                futures.add(executor.submit(() -> {
+                    try {
+                        if (resolveTokenFiles(token, fileNames) > 0) {
+                            result.add(token);
+                        }
+                        return null;
+                    } finally {
+                        listings.release();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    //not resolved keys are checked one by one later
+                    log.error("Listing failed: " + e.getCause().getMessage());
+                }
+            }
+        }
+        log.info("Files existing for " + result.size() + " of " + tokens.size() + " tokens");
+        return result;
+    }
+
+    /**
+     * Resolves the files of one token with a single paginated listing of its folder.
+     *
+     * @return number of existing files
+     */
+    public int resolveTokenFiles(String token, Collection<String> fileNames) throws Exception {
+        TreeSet<String> paths = new TreeSet<>();
+        for (String fileName : fileNames) {
+            paths.add(createFilePath(token, fileName));
+        }
+        if (paths.isEmpty()) {
+            return 0;
+        }
+        //any key the first path starts with sorts before it, so the listing starts right at the first file
+        String first = paths.first();
+        Map<String, S3ObjectSummary> objects = listObjects(getTokenFolderName(token), first.substring(0, first.length() - 1), paths.last());
+        int count = 0;
+        for (String path : paths) {
+            S3ObjectSummary summary = objects.get(path);
+            if (summary != null) {
+                existingObjects.put(path, new ObjectVersion(verificationBucketName, path, summary.getETag(), summary.getSize()));
+                count++;
+            }
+            resolvedKeys.add(path);
+        }
+        return count;
+    }
+
+    //keys are listed in order, so pages after the one reaching lastKey aren't requested
+    private Map<String, S3ObjectSummary> listObjects(String prefix, String startAfter, String lastKey) {
+        Map<String, S3ObjectSummary> objects = new HashMap<>();
+        ListObjectsV2Request request = new ListObjectsV2Request()
+                .withBucketName(verificationBucketName)
+                .withPrefix(prefix)
+                .withStartAfter(startAfter);
+        ListObjectsV2Result result;
+        String pageEnd = null;
+        do {
+            result = request("list", () -> s3client.listObjectsV2(request));
+            for (S3ObjectSummary summary : result.getObjectSummaries()) {
+                objects.put(summary.getKey(), summary);
+                pageEnd = summary.getKey();
+            }
+            request.setContinuationToken(result.getNextContinuationToken());
+        } while (result.isTruncated() && (pageEnd == null || pageEnd.compareTo(lastKey) < 0));
+        return objects;
+    }
+
+    /**
+     * ETag and size of an existing file, known after isFileExisted or resolveExistingFiles.
+     */
+    public ObjectVersion getFileVersion(String token, String fileName) throws Exception {
+        String path = createFilePath(token, fileName);
+        ObjectVersion version = existingObjects.get(path);
+        if (version == null) {
+            ObjectMetadata metadata = request("head", () -> s3client.getObjectMetadata(verificationBucketName, path));
+            version = new ObjectVersion(verificationBucketName, path, metadata.getETag(), metadata.getContentLength());
+            existingObjects.put(path, version);
+        }
+        return version;
+    }
 
-        InputStream inputStream = s3Object.getObjectContent();
+    /**
+     * Lists files of the token folder with keys after startAfter, in key order. File names are epoch millis of the same
+     * length, so the key of the last seen file is a cursor and a listing only returns files uploaded after it.
+     * Listed files are known to exist, so their validation makes no HEAD request.
+     */
+    public List<ObjectVersion> listNewFiles(String token, String startAfter) {
+        List<ObjectVersion> files = new ArrayList<>();
+        ListObjectsV2Request request = new ListObjectsV2Request()
+                .withBucketName(verificationBucketName)
+                .withPrefix(getTokenFolderName(token))
+                .withStartAfter(startAfter);
+        ListObjectsV2Result result;
+        do {
+            result = request("list", () -> s3client.listObjectsV2(request));
+            for (S3ObjectSummary summary : result.getObjectSummaries()) {
+                if (fileExtension == null || summary.getKey().endsWith(fileExtension)) {
+                    ObjectVersion version = new ObjectVersion(verificationBucketName, summary.getKey(), summary.getETag(), summary.getSize());
+                    addExistingFile(version);
+                    files.add(version);
+                }
+            }
+            request.setContinuationToken(result.getNextContinuationToken());
+        } while (result.isTruncated());
+        return files;
+    }
+
+    /**
+     * Registers a file known to exist, e.g. from a bucket notification.
+     */
+    public void addExistingFile(ObjectVersion version) {
+        existingObjects.put(version.getKey(), version);
+        resolvedKeys.add(version.getKey());
+    }
 
+    public String getVerificationBucketName() {
+        return verificationBucketName;
+    }
+
+    /**
+     * Key of the token folder and the given file name without extension, e.g. the cursor to list files after it.
+     */
+    public String getFileKey(String token, String fileName) {
+        return getTokenFolderName(token) + fileName;
+    }
+
+    /**
+     * @return {token, fileName} of a file key, null if the key is not a file of a token folder
+     */
+    public String[] parseFileKey(String key) {
+        if (!key.startsWith(verificationBaseFolderName)) {
+            return null;
+        }
+        String rest = key.substring(verificationBaseFolderName.length());
+        int slash = rest.indexOf('/');
+        if (slash <= 0 || rest.indexOf('/', slash + 1) >= 0) {
+            return null;
+        }
+        String fileName = rest.substring(slash + 1);
+        if (fileExtension != null) {
+            if (!fileName.endsWith(fileExtension)) {
+                return null;
+            }
+            fileName = fileName.substring(0, fileName.length() - fileExtension.length());
+        }
+        return fileName.isBlank() ? null : new String[]{rest.substring(0, slash), fileName};
+    }
+
+    /**
+     * Forgets the resolved files, so a resident process sees the files uploaded after its previous run.
+     */
+    public void clearObjectCache() {
+        resolvedKeys.clear();
+        existingObjects.clear();
+    }
+
+    public List<String> listTokens() {
+        List<String> tokens = new ArrayList<>();
+        ListObjectsV2Request request = new ListObjectsV2Request()
+                .withBucketName(verificationBucketName)
+                .withPrefix(verificationBaseFolderName)
+                .withDelimiter("/");
+        ListObjectsV2Result result;
+        do {
+            result = request("list", () -> s3client.listObjectsV2(request));
+            for (String prefix : result.getCommonPrefixes()) {
+                String token = prefix.substring(verificationBaseFolderName.length()).replace("/", "").trim();
+                if (!token.isBlank()) {
+                    tokens.add(token);
+                }
+            }
+            request.setContinuationToken(result.getNextContinuationToken());
+        } while (result.isTruncated());
+        log.info("Tokens found in " + verificationBucketName + verificationBaseFolderName + " = " + tokens.size());
+        return tokens;
+    }
+
+    /**
+     * Opens the object content for reading without a temp file, the caller has to close the stream. The stream holds
+     * an I/O permit until it's closed.
+     * The GET is bound to the known ETag, and a stream ending before Content-Length bytes throws instead of
+     * returning a truncated file.
+     */
+    public InputStream openFileStream(String token, String fileName) throws Exception {
+        String path = createFilePath(token, fileName);
+        ObjectVersion version = existingObjects.get(path);
+        GetObjectRequest request = new GetObjectRequest(verificationBucketName, path);
+        if (version != null && version.getETag() != null) {
+            request.setMatchingETagConstraints(Collections.singletonList(version.getETag()));
+        }
+        final S3Object s3Object = getObject("get", request);
+        if (s3Object == null) {
+            throw new IOException("File " + version + " is changed since it was listed");
+        }
+        long contentLength = s3Object.getObjectMetadata().getContentLength();
+        InputStream counted = new ProxyInputStream(s3Object.getObjectContent()) {
+            private long read;
+
+            @Override
+            protected void afterRead(int n) throws IOException {
+                if (n > 0) {
+                    read += n;
+                    bytesDownloaded.add(n);
+                } else if (n < 0 && read != contentLength) {
+                    throw new IOException("File " + path + " is truncated at " + read + " of " + contentLength + " bytes");
+                }
+            }
+        };
+        return new BufferedInputStream(counted, CompressionUtils.BUFFER_SIZE);
+    }
+
+    /**
+     * Downloads the file to a temp file. Objects of at least aws.client.ranged_get.threshold_mb are split into byte
+     * ranges fetched concurrently, smaller ones are fetched with one GET. Every GET is bound to the ETag of the file
+     * and checked against the expected length, a failed range is retried with exponential backoff and, with
+     * aws.client.ranged_get.hedge_after_ms, a range still running after that time is requested once more and the first
+     * response wins. A file which can't be fully downloaded throws, so a truncated file is never validated.
+     */
+    public File downloadFile(String token, String fileName) throws Exception {
+        ObjectVersion version = getFileVersion(token, fileName);
         File tempDir = new File(TEMP_DIR_NAME);
-        File tempFile = new File(TEMP_DIR_NAME + TEMP_FILE_NAME);
+        File tempFile = getTempFile(token, fileName);
+        if (!tempDir.exists()) {
+            log.info("tempDir created: " + tempDir.mkdirs());
+        }
+        long start = System.currentTimeMillis();
         try {
-            if (!tempDir.exists()) {
-                log.info("tempDir created: " + tempDir.mkdirs());
+            downloadRanges(version, tempFile);
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        }
+        log.info("File " + version + " is downloaded in " + (System.currentTimeMillis() - start) + " ms");
+        return tempFile;
+    }
+
+    private void downloadRanges(ObjectVersion version, File file) throws IOException {
+        long size = version.getSize();
+        if (size < 0) {
+            downloadWhole(version, file);
+            return;
+        }
+        boolean ranged = size >= rangedGetThreshold;
+        long rangeSize = ranged ? rangedGetPartSize : Math.max(1, size);
+        int parts = (int) Math.max(1, (size + rangeSize - 1) / rangeSize);
+        //ranges run on virtual threads owned by this download
+        ExecutorService executor = TaskExecutors.newVirtualThreadExecutor("s3-range");
+        //a range keeps its permit until it's written, so at most rangedGetConcurrency ranges are in memory
+        Semaphore inFlight = new Semaphore(rangedGetConcurrency);
+        List<CompletableFuture<Void>> written = new ArrayList<>(parts);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int part = 0; part < parts; part++) {
+                long start = part * rangeSize;
+                long end = Math.min(size, start + rangeSize) - 1;
+                inFlight.acquire();
+                if (written.stream().anyMatch(CompletableFuture::isCompletedExceptionally)) {
+                    inFlight.release();
+                    break;
+                }
+                written.add(fetchRange(version, start, end, ranged, executor)
+                        .thenAccept(data -> writeRange(channel, data, start))
+                        .whenComplete((result, e) -> inFlight.release()));
             }
-            if (!tempFile.exists()) {
-                log.info("tempFile created: " + tempFile.createNewFile());
+            CompletableFuture.allOf(written.toArray(new CompletableFuture<?>[0])).join();
+            if (channel.size() != size) {
+                throw new IOException("File " + version + " is downloaded with " + channel.size() + " bytes");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Download of " + version + " is interrupted");
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause);
+        } finally {
+            //aborts the losing hedged attempts and waits for them, no range outlives the download
+            executor.shutdownNow();
+            executor.close();
+        }
+    }
+
+    //the size isn't known, so the object is fetched with one GET and checked against its Content-Length only
+    private void downloadWhole(ObjectVersion version, File file) throws IOException {
+        GetObjectRequest request = new GetObjectRequest(version.getBucket(), version.getKey());
+        if (version.getETag() != null) {
+            request.setMatchingETagConstraints(Collections.singletonList(version.getETag()));
+        }
+        S3Object s3Object = getObject("get", request);
+        if (s3Object == null) {
+            throw new ObjectChangedException("File " + version + " is changed since it was listed");
+        }
+        try (S3ObjectInputStream inputStream = s3Object.getObjectContent()) {
+            long contentLength = s3Object.getObjectMetadata().getContentLength();
+            long copied = Files.copy(inputStream, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            bytesDownloaded.add(copied);
+            if (contentLength >= 0 && copied != contentLength) {
+                throw new IOException("File " + version + " is truncated at " + copied + " of " + contentLength + " bytes");
+            }
+        }
+    }
+
+    private static void writeRange(FileChannel channel, byte[] data, long position) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
             }
-            FileUtils.copyInputStreamToFile(inputStream, tempFile);
         } catch (IOException e) {
-            log.error(e.getMessage());
+            throw new UncheckedIOException(e);
         }
-        return tempFile;
     }
 
-    public void deleteTempFile() {
-        File tempDir = new File(TEMP_DIR_NAME);
-        File tempFile = new File(TEMP_DIR_NAME + TEMP_FILE_NAME);
+    //the range is completed by the first attempt to get it, a hedged attempt runs next to a slow one
+    private CompletableFuture<byte[]> fetchRange(ObjectVersion version, long start, long end, boolean ranged, ExecutorService executor) {
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        AtomicInteger running = new AtomicInteger(1);
+        Runnable attempt = () -> {
+            try {
+                byte[] data = fetchWithRetry(version, start, end, ranged, result);
+                if (data != null) {
+                    result.complete(data);
+                }
+            } catch (Exception e) {
+                if (running.decrementAndGet() == 0 || e instanceof ObjectChangedException) {
+                    result.completeExceptionally(e);
+                }
+            }
+        };
+        executor.execute(attempt);
+        if (hedgeTimer != null) {
+            ScheduledFuture<?> hedge = hedgeTimer.schedule(() -> {
+                if (!result.isDone() && running.incrementAndGet() > 1) {
+                    metricsRegistry.counter("candle_validation_s3_hedged_requests_total", "Ranges requested again as the first request was slow").inc();
+                    try {
+                        executor.execute(attempt);
+                    } catch (RejectedExecutionException e) {
+                        //the download is already over
+                        running.decrementAndGet();
+                    }
+                }
+            }, hedgeAfterMillis, TimeUnit.MILLISECONDS);
+            result.whenComplete((data, e) -> hedge.cancel(false));
+        }
+        return result;
+    }
+
+    private byte[] fetchWithRetry(ObjectVersion version, long start, long end, boolean ranged, CompletableFuture<byte[]> result) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return fetch(version, start, end, ranged, result);
+            } catch (ObjectChangedException e) {
+                throw e;
+            } catch (IOException | AmazonClientException e) {
+                if (attempt >= rangedGetRetries || result.isDone() || !isRetryable(e)) {
+                    throw e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+                }
+                metricsRegistry.counter("candle_validation_s3_range_retries_total", "Retried range requests").inc();
+                log.info("Range " + start + "-" + end + " of " + version.getKey() + " failed, retry " + (attempt + 1) + ": " + e.getMessage());
+                try {
+                    Thread.sleep(rangedGetBackoffMillis << attempt);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Range " + start + "-" + end + " of " + version.getKey() + " is interrupted");
+                }
+            }
+        }
+    }
+
+    //client errors won't change with a retry, except throttling and timeouts
+    private static boolean isRetryable(Exception e) {
+        if (!(e instanceof AmazonServiceException)) {
+            return true;
+        }
+        int status = ((AmazonServiceException) e).getStatusCode();
+        return status >= 500 || status == 408 || status == 429;
+    }
+
+    /**
+     * @return content of the range, null if the range was completed by another attempt meanwhile
+     */
+    private byte[] fetch(ObjectVersion version, long start, long end, boolean ranged, CompletableFuture<byte[]> result) throws IOException {
+        GetObjectRequest request = new GetObjectRequest(version.getBucket(), version.getKey());
+        if (ranged) {
+            request.setRange(start, end);
+        }
+        if (version.getETag() != null) {
+            request.setMatchingETagConstraints(Collections.singletonList(version.getETag()));
+        }
+        S3Object s3Object = getObject(ranged ? "get_range" : "get", request);
+        if (s3Object == null) {
+            throw new ObjectChangedException("File " + version + " is changed since it was listed");
+        }
+        int length = (int) (end - start + 1);
+        S3ObjectInputStream inputStream = s3Object.getObjectContent();
+        try {
+            if (s3Object.getObjectMetadata().getContentLength() != length) {
+                throw new ObjectChangedException("Range " + start + "-" + end + " of " + version + " has Content-Length "
+                        + s3Object.getObjectMetadata().getContentLength());
+            }
+            byte[] data = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                if (result.isDone()) {
+                    inputStream.abort();
+                    return null;
+                }
+                int n = inputStream.read(data, offset, length - offset);
+                if (n < 0) {
+                    throw new IOException("Range " + start + "-" + end + " of " + version.getKey() + " is truncated at " + (start + offset));
+                }
+                offset += n;
+                bytesDownloaded.add(n);
+            }
+            return data;
+        } catch (IOException | RuntimeException e) {
+            inputStream.abort();
+            throw e;
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    //the object doesn't match the listed version, retrying the range can't help
+    private static class ObjectChangedException extends IOException {
+        private ObjectChangedException(String message) {
+            super(message);
+        }
+    }
+
+    //one temp file per token and day, so concurrent validations don't collide
+    private static File getTempFile(String token, String fileName) {
+        return new File(TEMP_DIR_NAME + TEMP_FILE_NAME + "_" + token + "_" + fileName);
+    }
+
+    public void deleteTempFile(String token, String fileName) {
+        File tempFile = getTempFile(token, fileName);
 
         if (tempFile.exists()) {
             log.info("TempFile deleted: " + tempFile.delete());
         }
-        if (tempDir.exists()) {
+    }
+
+    public void deleteTempDir() {
+        File tempDir = new File(TEMP_DIR_NAME);
+        String[] files = tempDir.list();
+        if (tempDir.exists() && (files == null || files.length == 0)) {
             log.info("TempDir deleted: " + tempDir.delete());
         }
     }
 
     public void uploadReportLogToAws(String path) throws Exception {
-        String key = Path.of(path).getFileName().toString();
-        if (reportBucketName == null) {
-            log.info(key + " is NOT uploaded to AWS");
+        File file = new File(path);
+        String key = getReportKey(file.getName());
+        if (key == null) {
             return;
         }
-        if (!s3client.doesBucketExistV2(reportBucketName)) {
+        request("put", () -> s3client.putObject(reportBucketName, key, file));
+        log.info(key + " is uploaded to AWS");
+    }
+
+    /**
+     * Transfer manager for report uploads on its own thread pool: files larger than a part are uploaded as multipart
+     * uploads with parts sent in parallel. It shares the S3 client, so it has to be stopped with shutdownNow(false).
+     */
+    public TransferManager createTransferManager() {
+        return TransferManagerBuilder.standard()
+                .withS3Client(s3client)
+                .withExecutorFactory(() -> Executors.newFixedThreadPool(uploadThreads))
+                .withMinimumUploadPartSize(uploadPartSize)
+                .withMultipartUploadThreshold(uploadPartSize)
+                .withShutDownThreadPools(true)
+                .build();
+    }
+
+    /**
+     * Starts the upload of a report file in the background.
+     *
+     * @return the started upload, null if the report bucket isn't configured
+     */
+    public Upload uploadReportInBackground(TransferManager transferManager, File file) throws Exception {
+        String key = getReportKey(file.getName());
+        if (key == null) {
+            return null;
+        }
+        metricsRegistry.counter("candle_validation_s3_requests_total", "S3 requests", "operation", "upload").inc();
+        return transferManager.upload(reportBucketName, key, file);
+    }
+
+    //key of a report file in the report folder, null if reports are not uploaded
+    private String getReportKey(String name) throws Exception {
+        if (reportBucketName == null) {
+            log.info(name + " is NOT uploaded to AWS");
+            return null;
+        }
+        if (!bucketExists(reportBucketName)) {
             throw new Exception("There's no such AWS bucket \"" + reportBucketName.substring(1) + "\" to upload report");
         }
         if (reportFolderName != null && !reportFolderName.isBlank()) {
-            key = reportFolderName + "/" + key;
+            return reportFolderName + "/" + name;
         }
-        File file = new File(path);
-        s3client.putObject(reportBucketName, key, file);
-        log.info(key + " is uploaded to AWS");
+        return name;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,138 @@
+package service;
+
+import lombok.extern.apachecommons.CommonsLog;
+import utilities.CronExpression;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Resident mode: the process stays up and runs the job at the times of candle-validation.daemon.schedule, so the JVM,
+ * the clients and the JIT compiled parser are reused between runs. The config file is checked every
+ * reload_check_sec while waiting and when it's modified the properties are reloaded and the job is created again.
+ */
+@CommonsLog
+public class DaemonService {
+
+    public interface Job extends AutoCloseable {
+        void run() throws Exception;
+    }
+
+    public interface JobFactory {
+        Job create(Properties appProps) throws Exception;
+    }
+
+    public interface PropertiesLoader {
+        Properties load() throws IOException;
+    }
+
+    private final PropertiesLoader propertiesLoader;
+    private final File configFile;
+
+    /**
+     * @param configFile the file propertiesLoader reads, it isn't watched if it doesn't exist
+     */
+    public DaemonService(PropertiesLoader propertiesLoader, File configFile) {
+        this.propertiesLoader = propertiesLoader;
+        this.configFile = configFile;
+    }
+
+    private static List<CronExpression> getSchedule(Properties appProps) {
+        String prop = appProps.getProperty("candle-validation.daemon.schedule");
+        if (prop == null || prop.isBlank()) {
+            throw new IllegalArgumentException("No candle-validation.daemon.schedule set for daemon mode");
+        }
+        List<CronExpression> result = new ArrayList<>();
+        for (String expression : prop.split(";")) {
+            if (!expression.isBlank()) {
+                result.add(new CronExpression(expression));
+            }
+        }
+        log.info("Daemon schedule = " + result);
+        return result;
+    }
+
+    private static long getReloadCheckMillis(Properties appProps) {
+        String prop = appProps.getProperty("candle-validation.daemon.reload_check_sec");
+        long seconds = 30;
+        if (prop != null && !prop.isBlank()) {
+            seconds = Long.parseLong(prop.trim());
+        }
+        return Math.max(1, seconds) * 1000;
+    }
+
+    private static ZonedDateTime getNextRun(List<CronExpression> schedule, ZonedDateTime now) {
+        ZonedDateTime result = null;
+        for (CronExpression expression : schedule) {
+            ZonedDateTime next = expression.next(now);
+            if (result == null || next.isBefore(result)) {
+                result = next;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Runs until the thread is interrupted, e.g. by the shutdown hook on SIGTERM. The job is closed on exit,
+     * so queued Slack messages are still sent.
+     */
+    public void run(JobFactory jobFactory, Properties appProps) throws Exception {
+        long configModified = configFile.lastModified();
+        List<CronExpression> schedule = getSchedule(appProps);
+        long reloadCheckMillis = getReloadCheckMillis(appProps);
+        ZoneId zoneId = new TimeService(appProps).getZoneId();
+        Job job = jobFactory.create(appProps);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                ZonedDateTime nextRun = getNextRun(schedule, ZonedDateTime.now(zoneId));
+                log.info("Next validation at " + nextRun);
+                boolean reload = false;
+                long wait;
+                while (!reload && (wait = Duration.between(ZonedDateTime.now(zoneId), nextRun).toMillis()) > 0) {
+                    Thread.sleep(Math.min(wait, reloadCheckMillis));
+                    reload = configFile.exists() && configFile.lastModified() != configModified;
+                }
+                if (!reload) {
+                    runJob(job);
+                    continue;
+                }
+                configModified = configFile.lastModified();
+                log.info("Config " + configFile.getPath() + " is modified, reloading");
+                try {
+                    Properties reloaded = propertiesLoader.load();
+                    List<CronExpression> reloadedSchedule = getSchedule(reloaded);
+                    Job reloadedJob = jobFactory.create(reloaded);
+                    job.close();
+                    job = reloadedJob;
+                    schedule = reloadedSchedule;
+                    reloadCheckMillis = getReloadCheckMillis(reloaded);
+                    zoneId = new TimeService(reloaded).getZoneId();
+                } catch (Exception e) {
+                    log.error("Config reload failed, the previous config is kept: " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            log.info("Daemon is stopped");
+        } finally {
+            job.close();
+        }
+    }
+
+    private static void runJob(Job job) {
+        long start = System.currentTimeMillis();
+        try {
+            job.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Scheduled validation failed: " + e.getMessage());
+        }
+        log.info("Scheduled validation took " + (System.currentTimeMillis() - start) + " ms");
+    }
+}
@@ -1,6 +1,8 @@
 package service;
 
 
+import anomaly.AnomalyDetector;
+import anomaly.AnomalyScan;
 import com.opencsv.CSVParser;
 import com.opencsv.CSVParserBuilder;
 import com.opencsv.CSVReader;
@@ -8,52 +10,577 @@ import com.opencsv.CSVReaderBuilder;
 import com.opencsv.exceptions.CsvException;
 import exceptions.ValidationException;
 import lombok.extern.apachecommons.CommonsLog;
+import metrics.MetricsRegistry;
+import model.TokenState;
+import model.ValidationResult;
+import model.Violation;
+import parser.ByteCandleReader;
+import parser.CandleCacheWriter;
+import parser.CandleCursor;
+import parser.CandleReader;
+import parser.OpenCsvCandleReader;
+import rules.CandleRuleFactory;
+import rules.CandleRules;
+import utilities.CompressionUtils;
+import utilities.TimedInputStream;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 @CommonsLog
 public class ParseCsvService {
 
 
+    private static final int LINE_SEARCH_WINDOW = 4096;
+    private static final long MAX_CHUNK_SIZE = 1024L * 1024 * 1024;
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final String CONTINUITY_RULE = "continuity";
+
     private final Properties appProps;
+    private final MetricsRegistry metricsRegistry;
     private final String invalidNumberMessage;
     private final String wrongOrderMessage;
     private final String blankRecordMessage;
+    private final String ruleViolationMessage;
+    private final String invalidTimestampMessage;
+    private final int maxViolations;
+    private final int maxListedViolations;
+    private final CandleRuleFactory ruleFactory;
     private final String fileName;
     private final String fileExtension;
     private final String token;
+    private final String compression;
+    private final boolean useOpenCsv;
+    private final long localChunkSize;
+    private final int localParallelism;
+    private final double maxOpenGap;
+    //summary of the previous trading day of the token, continuity isn't checked without it
+    private TokenState previousState;
+    private ScanResult lastScan;
+    //collects the rows of sequential scans for the candle cache, null when the file isn't cached
+    private CandleCacheWriter cacheWriter;
+    //checks rows and the file against the baseline of the token, null when anomaly detection is disabled
+    private AnomalyDetector anomalyDetector;
 
     public ParseCsvService(Properties appProps, String fileName, String fileExtension, String token) {
+        this(appProps, fileName, fileExtension, token, new CandleRuleFactory(appProps, null));
+    }
+
+    public ParseCsvService(Properties appProps, String fileName, String fileExtension, String token, CandleRuleFactory ruleFactory) {
+        this(appProps, fileName, fileExtension, token, ruleFactory, new MetricsRegistry());
+    }
+
+    public ParseCsvService(Properties appProps, String fileName, String fileExtension, String token, CandleRuleFactory ruleFactory,
+                           MetricsRegistry metricsRegistry) {
         this.appProps = appProps;
+        this.metricsRegistry = metricsRegistry;
+        this.ruleFactory = ruleFactory;
+        this.ruleViolationMessage = appProps.getProperty("candle-validation.slack.rule_violation_message");
+        this.invalidTimestampMessage = appProps.getProperty("candle-validation.slack.invalid_timestamp_message");
+        this.maxViolations = Integer.parseInt(appProps.getProperty("candle-validation.max_violations", "100").trim());
+        this.maxListedViolations = Integer.parseInt(appProps.getProperty("candle-validation.slack.max_listed_violations", "10").trim());
         this.invalidNumberMessage = appProps.getProperty("candle-validation.slack.invalid_number_message");
         this.wrongOrderMessage = appProps.getProperty("candle-validation.slack.wrong_order_message");
         this.blankRecordMessage = appProps.getProperty("candle-validation.slack.blank_record_message");
         this.fileName = fileName;
         this.token = token;
         this.fileExtension = fileExtension;
+        this.compression = appProps.getProperty("candle-validation.compression");
+        this.localChunkSize = getLocalChunkSize(appProps);
+        this.localParallelism = getLocalParallelism(appProps);
+        this.useOpenCsv = "opencsv".equalsIgnoreCase(appProps.getProperty("candle-validation.parser", "bytes").trim());
+        this.maxOpenGap = Double.parseDouble(appProps.getProperty("candle-validation.continuity.max_open_gap", "0").trim());
+    }
+
+    public void setPreviousState(TokenState previousState) {
+        this.previousState = previousState;
+    }
+
+    public void setCacheWriter(CandleCacheWriter cacheWriter) {
+        this.cacheWriter = cacheWriter;
+    }
+
+    public void setAnomalyDetector(AnomalyDetector anomalyDetector) {
+        this.anomalyDetector = anomalyDetector;
+    }
+
+    /**
+     * @return statistics of the last validated file to add to the baseline of the token, null when anomaly detection is disabled
+     */
+    public AnomalyScan getAnomalyScan() {
+        return lastScan == null ? null : lastScan.anomalies;
+    }
+
+    /**
+     * @return summary of the last validated file to check the next trading day against, null if it has no valid rows
+     */
+    public TokenState getFileState(LocalDate day) {
+        if (lastScan == null || !lastScan.hasFirst) {
+            return null;
+        }
+        return new TokenState(day.toEpochDay(), lastScan.result.getRowCount(), lastScan.firstTimestamp, lastScan.lastTimestamp,
+                lastScan.lastOpen, lastScan.lastHigh, lastScan.lastLow, lastScan.lastClose);
     }
 
     public List<String[]> getRecords(File file) throws IOException, CsvException {
         FileReader filereader = new FileReader(file);
         CSVParser parser = new CSVParserBuilder().withSeparator(',').build();
-        CSVReader csvReader = new CSVReaderBuilder(filereader)
+        try (CSVReader csvReader = new CSVReaderBuilder(filereader)
                 .withCSVParser(parser)
-                .build();
-        return csvReader.readAll();
+                .build()) {
+            return csvReader.readAll();
+        }
     }
 
-    @SuppressWarnings("SameReturnValue")
-    public boolean checkSize(List<String[]> list) throws ValidationException {
+    private static long getLocalChunkSize(Properties appProps) {
+        String prop = appProps.getProperty("candle-validation.local.chunk_size");
+        long bytes = 64L * 1024 * 1024;
+        if (prop != null && !prop.isBlank()) {
+            bytes = Long.parseLong(prop.trim());
+        }
+        //a mapped region can't exceed Integer.MAX_VALUE, the rest is left for the line tail
+        return Math.max(1, Math.min(bytes, MAX_CHUNK_SIZE));
+    }
+
+    private static int getLocalParallelism(Properties appProps) {
+        String prop = appProps.getProperty("candle-validation.local.parallelism");
+        if (prop == null || prop.isBlank()) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return Math.max(1, Integer.parseInt(prop.trim()));
+    }
+
+    private int getRequiredCount() {
         String numberStr = appProps.getProperty("candle-validation.count_number_to_validate");
         int number = 375;
         if (numberStr != null) {
             number = Integer.parseInt(numberStr);
         }
         log.info("Required records count = " + number);
+        return number;
+    }
+
+    /**
+     * Single pass over the file: rows are read one by one and only the previous timestamp is kept,
+     * so memory doesn't depend on the file size. All violations are collected, up to candle-validation.max_violations
+     * with details, the rest are only counted.
+     */
+    public ValidationResult validate(File file) throws IOException {
+        try (InputStream inputStream = new FileInputStream(file)) {
+            return validate(inputStream);
+        }
+    }
+
+    /**
+     * Time blocked in reads of the stream, e.g. waiting for S3 in stream mode, isn't counted as parse time,
+     * it's recorded as candle_validation_read_seconds.
+     */
+    public ValidationResult validate(InputStream inputStream) throws IOException {
+        TimedInputStream timed = new TimedInputStream(inputStream);
+        InputStream decompressed = CompressionUtils.wrap(timed, compression);
+        if (useOpenCsv) {
+            return validate(new OpenCsvCandleReader(new InputStreamReader(decompressed, StandardCharsets.UTF_8)), timed);
+        }
+        return validate(new ByteCandleReader(decompressed), timed);
+    }
+
+    public ValidationResult validate(Reader reader) throws IOException {
+        return validate(new OpenCsvCandleReader(reader));
+    }
+
+    public ValidationResult validate(CandleReader candleReader) throws IOException {
+        return validate(candleReader, null);
+    }
+
+    private ValidationResult validate(CandleReader candleReader, TimedInputStream input) throws IOException {
+        long start = System.nanoTime();
+        ScanResult result;
+        if (cacheWriter != null) {
+            cacheWriter.reset();
+        }
+        try (candleReader) {
+            result = scan(candleReader, cacheWriter, false);
+        }
+        return finish(result, start, input, "sequential");
+    }
+
+    /**
+     * Local files are memory mapped and split into line aligned chunks which are scanned in parallel. The first valid
+     * row of every chunk is checked while the chunks are stitched, after the last valid row of the chunk before,
+     * so the result is the same as for a single pass. Compressed files, the OpenCSV parser and rules which need all
+     * the rows before (spike) use the streaming path, so do files with quoted values as they may span lines.
+     */
+    public ValidationResult validateMapped(File file) throws IOException {
+        if (useOpenCsv || !ruleFactory.isChunkable() || isCompressed(file)) {
+            return validate(file);
+        }
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            List<long[]> chunks = splitIntoChunks(channel);
+            log.info("File " + file.getName() + " of " + channel.size() + " bytes is split into " + chunks.size() + " chunks");
+            ForkJoinPool pool = new ForkJoinPool(localParallelism);
+            List<ScanResult> scans = new ArrayList<>(chunks.size());
+            try {
+                List<ForkJoinTask<ScanResult>> tasks = new ArrayList<>(chunks.size());
+                for (long[] chunk : chunks) {
+                    tasks.add(pool.submit(() -> scanChunk(channel, chunk[0], chunk[1])));
+                }
+                for (ForkJoinTask<ScanResult> task : tasks) {
+                    scans.add(task.join());
+                }
+            } finally {
+                pool.shutdown();
+            }
+            if (scans.contains(null)) {
+                log.info("File " + file.getName() + " has quoted values, it's validated in one pass");
+                return validate(file);
+            }
+            ScanResult total = new ScanResult(new ValidationResult(maxViolations), newAnomalyScan());
+            for (ScanResult scan : scans) {
+                total.append(scan, ruleFactory.create());
+            }
+            return finish(total, start, null, "mapped");
+        }
+    }
+
+    private boolean isCompressed(File file) throws IOException {
+        try (BufferedInputStream inputStream = new BufferedInputStream(new FileInputStream(file))) {
+            return CompressionUtils.isCompressed(inputStream, compression);
+        }
+    }
+
+    //{start, end} pairs, every chunk but the last ends right after a line terminator
+    private List<long[]> splitIntoChunks(FileChannel channel) throws IOException {
+        long size = channel.size();
+        List<long[]> chunks = new ArrayList<>();
+        ByteBuffer window = ByteBuffer.allocate(LINE_SEARCH_WINDOW);
+        long start = 0;
+        while (start < size) {
+            long end = start + localChunkSize;
+            if (end >= size) {
+                end = size;
+            } else {
+                end = findChunkEnd(channel, end, size, window);
+            }
+            chunks.add(new long[]{start, end});
+            start = end;
+        }
+        return chunks;
+    }
+
+    private static long findChunkEnd(FileChannel channel, long from, long size, ByteBuffer window) throws IOException {
+        long position = from;
+        boolean afterCarriageReturn = false;
+        while (position < size) {
+            window.clear();
+            int read = channel.read(window, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                byte b = window.get(i);
+                if (afterCarriageReturn) {
+                    return b == '\n' ? position + i + 1 : position + i;
+                }
+                if (b == '\n') {
+                    return position + i + 1;
+                }
+                afterCarriageReturn = b == '\r';
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    //null when the chunk has quoted values, they can't be parsed apart from the chunks around
+    private ScanResult scanChunk(FileChannel channel, long start, long end) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        ByteCandleReader reader = new ByteCandleReader(buffer);
+        try {
+            ScanResult result = scan(reader, null, start > 0);
+            return reader.hasIrregularLines() ? null : result;
+        } catch (IOException e) {
+            if (reader.hasIrregularLines()) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @param deferFirst the first valid row is only kept, it's checked when the chunk is stitched to the one before
+     */
+    private ScanResult scan(CandleReader candleReader, CandleCacheWriter cacheWriter, boolean deferFirst) throws IOException {
+        CandleCursor cursor = new CandleCursor();
+        CandleRules rules = ruleFactory.create();
+        boolean checkRules = !rules.isEmpty();
+        ScanResult scan = new ScanResult(new ValidationResult(maxViolations), newAnomalyScan());
+        ValidationResult result = scan.result;
+        AnomalyScan anomalies = scan.anomalies;
+        long count = 0;
+        while (candleReader.next(cursor)) {
+            long i = count++;
+            if (cacheWriter != null) {
+                cacheWriter.add(cursor);
+            }
+            if (cursor.isTimestampBlank()) {
+                if (result.countViolation(Violation.Type.BLANK)) {
+                    result.addViolation(new Violation(i, Violation.Type.BLANK, null, ""));
+                }
+                continue;
+            }
+            if (cursor.getTimestampError() != null) {
+                if (result.countViolation(Violation.Type.INVALID_TIMESTAMP)) {
+                    result.addViolation(new Violation(i, Violation.Type.INVALID_TIMESTAMP, null, cursor.getTimestampError().getMessage()));
+                }
+                continue;
+            }
+            long curr = cursor.getTimestamp();
+            if (!scan.hasFirst) {
+                scan.hasFirst = true;
+                scan.firstRow = i;
+                scan.firstTimestamp = curr;
+                scan.firstOpen = cursor.getOpen();
+                if (deferFirst) {
+                    scan.firstCursor = cursor.copy();
+                    //the rules still need the row as the previous one of the next row
+                    rules.check(cursor, i, new ValidationResult(0));
+                    scan.setLast(cursor);
+                    continue;
+                }
+            } else if (scan.lastTimestamp >= curr && result.countViolation(Violation.Type.ORDER)) {
+                result.addViolation(new Violation(i, Violation.Type.ORDER, null, scan.lastTimestamp + " >= " + curr));
+            }
+            if (checkRules) {
+                rules.check(cursor, i, result);
+            }
+            if (anomalies != null) {
+                anomalies.add(cursor, i, result);
+            }
+            scan.setLast(cursor);
+        }
+        result.setRowCount(count);
+        return scan;
+    }
+
+    private AnomalyScan newAnomalyScan() {
+        return anomalyDetector == null ? null : anomalyDetector.newScan();
+    }
+
+    private ValidationResult finish(ScanResult scan, long startNanos, TimedInputStream input, String mode) {
+        ValidationResult result = scan.result;
+        lastScan = scan;
+        if (previousState != null && scan.hasFirst) {
+            checkContinuity(scan);
+        }
+        if (scan.anomalies != null) {
+            anomalyDetector.checkFile(scan.anomalies, result.getRowCount() - 1, result);
+        }
+        result.setExpectedCount(getRequiredCount());
+        long readNanos = input == null ? 0 : input.getReadNanos();
+        result.setReadNanos(readNanos);
+        result.setParseNanos(Math.max(0, System.nanoTime() - startNanos - readNanos));
+        log.info("All records are read = " + result.getRowCount());
+        log.info("Validation result for " + fileName + fileExtension + ": " + result);
+        recordMetrics(result, input != null, mode);
+        return result;
+    }
+
+    /**
+     * Checks the file against the previous trading day of the token: the first candle has to come after the last one
+     * of that day, the first and the last candles have to be at the same time of day as there (no missing candle
+     * at the day boundaries) and the open may differ from the previous close by max_open_gap at most.
+     */
+    private void checkContinuity(ScanResult scan) {
+        ValidationResult result = scan.result;
+        TokenState previous = previousState;
+        long lastRow = result.getRowCount() - 1;
+        if (scan.firstTimestamp <= previous.getLastTimestamp()) {
+            addContinuityViolation(result, scan.firstRow, "first timestamp " + scan.firstTimestamp
+                    + " is not after the last timestamp " + previous.getLastTimestamp() + " of the previous trading day");
+        }
+        if (Math.floorMod(scan.firstTimestamp, DAY_MILLIS) != Math.floorMod(previous.getFirstTimestamp(), DAY_MILLIS)) {
+            addContinuityViolation(result, scan.firstRow, "first candle at " + scan.firstTimestamp
+                    + " has another time of day than the first candle " + previous.getFirstTimestamp() + " of the previous trading day");
+        }
+        double previousClose = previous.getLastClose();
+        if (maxOpenGap > 0 && previousClose > 0 && Math.abs(scan.firstOpen - previousClose) > previousClose * maxOpenGap) {
+            addContinuityViolation(result, scan.firstRow, "open " + scan.firstOpen + " differs from the previous close "
+                    + previousClose + " by more than " + maxOpenGap * 100 + "%");
+        }
+        if (Math.floorMod(scan.lastTimestamp, DAY_MILLIS) != Math.floorMod(previous.getLastTimestamp(), DAY_MILLIS)) {
+            addContinuityViolation(result, lastRow, "last candle at " + scan.lastTimestamp
+                    + " has another time of day than the last candle " + previous.getLastTimestamp() + " of the previous trading day");
+        }
+    }
+
+    private static void addContinuityViolation(ValidationResult result, long row, String details) {
+        if (result.countRuleViolation(CONTINUITY_RULE)) {
+            result.addViolation(new Violation(row, Violation.Type.RULE, CONTINUITY_RULE, details));
+        }
+    }
+
+    //reads are timed apart, in stream mode they wait for S3, so parse time is spent on parsing and checking only
+    private void recordMetrics(ValidationResult result, boolean timedReads, String mode) {
+        metricsRegistry.histogram("candle_validation_parse_seconds", "Time to parse and validate a file, without reads of its content", "mode", mode)
+                .observe(result.getParseNanos() / 1e9);
+        if (timedReads) {
+            metricsRegistry.histogram("candle_validation_read_seconds", "Time blocked reading the content of a file while it's parsed", "mode", mode)
+                    .observe(result.getReadNanos() / 1e9);
+        }
+        metricsRegistry.counter("candle_validation_rows_parsed_total", "Rows parsed").add(result.getRowCount());
+        if (!result.isCountValid()) {
+            metricsRegistry.counter("candle_validation_violations_total", "Violations by type", "type", "count").inc();
+        }
+        for (Violation.Type type : Violation.Type.values()) {
+            long count = result.getViolationCount(type);
+            if (count > 0) {
+                metricsRegistry.counter("candle_validation_violations_total", "Violations by type", "type", type.name().toLowerCase()).add(count);
+            }
+        }
+        for (Map.Entry<String, Long> entry : result.getRuleViolationCounts().entrySet()) {
+            metricsRegistry.counter("candle_validation_rule_violations_total", "Violations by rule", "rule", entry.getKey()).add(entry.getValue());
+        }
+    }
+
+    /**
+     * Slack summary of a failed file: the configured message for every kind of violation and the first violations.
+     */
+    public String getSummary(ValidationResult result) {
+        String file = fileName + fileExtension;
+        StringBuilder summary = new StringBuilder();
+        if (!result.isCountValid()) {
+            appendLine(summary, String.format(invalidNumberMessage, String.valueOf(result.getRowCount()), file, String.valueOf(result.getExpectedCount())));
+        }
+        long blank = result.getViolationCount(Violation.Type.BLANK);
+        if (blank > 0) {
+            appendLine(summary, String.format(blankRecordMessage, file, token) + " Blank rows: " + blank);
+        }
+        long invalid = result.getViolationCount(Violation.Type.INVALID_TIMESTAMP);
+        if (invalid > 0) {
+            appendLine(summary, String.format(invalidTimestampMessage, file, token) + " Rows: " + invalid);
+        }
+        long order = result.getViolationCount(Violation.Type.ORDER);
+        if (order > 0) {
+            appendLine(summary, String.format(wrongOrderMessage, file) + ". Rows: " + order);
+        }
+        for (Map.Entry<String, Long> entry : result.getRuleViolationCounts().entrySet()) {
+            appendLine(summary, String.format(ruleViolationMessage, file, token, entry.getKey()) + " Rows: " + entry.getValue());
+        }
+        List<Violation> violations = result.getViolations();
+        int listed = Math.min(violations.size(), maxListedViolations);
+        if (listed > 0) {
+            appendLine(summary, "First " + listed + " of " + result.getTotalViolations() + " violations:");
+            for (int i = 0; i < listed; i++) {
+                appendLine(summary, violations.get(i).toString());
+            }
+        }
+        return summary.toString();
+    }
+
+    private static void appendLine(StringBuilder builder, String line) {
+        if (builder.length() > 0) {
+            builder.append('\n');
+        }
+        builder.append(line);
+    }
+
+    //counters and boundary timestamps of a scanned file or chunk
+    private static class ScanResult {
+        private final ValidationResult result;
+        private final AnomalyScan anomalies;
+        //first valid row of a chunk, not checked yet
+        private CandleCursor firstCursor;
+        private boolean hasFirst;
+        private long firstRow;
+        private long firstTimestamp;
+        private long lastTimestamp;
+        private double firstOpen;
+        private double lastOpen;
+        private double lastHigh;
+        private double lastLow;
+        private double lastClose;
+
+        private ScanResult(ValidationResult result, AnomalyScan anomalies) {
+            this.result = result;
+            this.anomalies = anomalies;
+        }
+
+        private void setLast(CandleCursor cursor) {
+            lastTimestamp = cursor.getTimestamp();
+            lastOpen = cursor.getOpen();
+            lastHigh = cursor.getHigh();
+            lastLow = cursor.getLow();
+            lastClose = cursor.getClose();
+        }
+
+        /**
+         * Appends the next chunk as if both were scanned in one pass. Violations of a row are kept in the order
+         * of a single pass: order, rules, anomaly volume, anomaly return.
+         *
+         * @param firstRules new rules for the first valid row of the next chunk
+         */
+        private void append(ScanResult next, CandleRules firstRules) {
+            long offset = result.getRowCount();
+            if (next.firstCursor != null) {
+                //first valid row of the next chunk after the last valid row of this one
+                ValidationResult first = new ValidationResult(result.getMaxViolations());
+                long row = offset + next.firstRow;
+                if (hasFirst && lastTimestamp >= next.firstTimestamp && first.countViolation(Violation.Type.ORDER)) {
+                    first.addViolation(new Violation(row, Violation.Type.ORDER, null, lastTimestamp + " >= " + next.firstTimestamp));
+                }
+                firstRules.checkFirst(hasFirst, lastTimestamp, next.firstCursor, row, first);
+                if (anomalies != null) {
+                    anomalies.add(next.firstCursor, row, first);
+                }
+                result.append(first, 0);
+            }
+            result.append(next.result, offset);
+            if (anomalies != null) {
+                //the return to the first close of the chunk comes last on its row, after the volume check of the chunk
+                ValidationResult boundary = new ValidationResult(result.getMaxViolations());
+                anomalies.addBoundary(next.anomalies, offset, boundary);
+                result.append(boundary, 0);
+                anomalies.append(next.anomalies, offset);
+            }
+            if (next.hasFirst) {
+                if (!hasFirst) {
+                    hasFirst = true;
+                    firstRow = offset + next.firstRow;
+                    firstTimestamp = next.firstTimestamp;
+                    firstOpen = next.firstOpen;
+                }
+                lastTimestamp = next.lastTimestamp;
+                lastOpen = next.lastOpen;
+                lastHigh = next.lastHigh;
+                lastLow = next.lastLow;
+                lastClose = next.lastClose;
+            }
+        }
+    }
+
+    @SuppressWarnings("SameReturnValue")
+    public boolean checkSize(List<String[]> list) throws ValidationException {
+        int number = getRequiredCount();
         if (list.size() != number) {
             throw new ValidationException(String.format(invalidNumberMessage, String.valueOf(list.size()), fileName + fileExtension, String.valueOf(number)));
         } else {
@@ -66,10 +593,13 @@ public class ParseCsvService {
         if (list == null) {
             throw new Exception("There are no data to check descending");
         }
+        //readAll returns a LinkedList, so the rows are walked with an iterator instead of get(i)
+        Iterator<String[]> iterator = list.iterator();
+        String nextStr = iterator.hasNext() ? iterator.next()[0] : null;
         for (int i = 0; i < list.size() - 1; i++) {
             int j = i + 1;
-            String currStr = list.get(i)[0];
-            String nextStr = list.get(j)[0];
+            String currStr = nextStr;
+            nextStr = iterator.next()[0];
             if (currStr == null || currStr.isBlank()) {
                 log.info("Record number " + i + " is absent");
                 throw new ValidationException(String.format(blankRecordMessage, fileName + fileExtension, token));
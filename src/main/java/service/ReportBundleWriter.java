@@ -0,0 +1,357 @@
+package service;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.Upload;
+import lombok.extern.apachecommons.CommonsLog;
+import metrics.MetricsRegistry;
+import model.TokenValidationResult;
+import model.ValidationResult;
+import model.Violation;
+import org.apache.commons.io.output.CountingOutputStream;
+import utilities.CompressionUtils;
+import utilities.JsonUtils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Aggregates the results of a run into gzipped NDJSON bundles with one line per validated file, instead of a report
+ * object per token. A line is a structured record of the file: token, date, status, counts, durations, violation counts
+ * by check and the kept violations with row and values. A bundle is closed when its compressed size reaches candle-validation.report.bundle.max_bytes (the size
+ * is counted as compressed data is written, so a bundle may exceed it by one deflate block) or when it's older than
+ * max_age_sec (also checked on a timer while no results come), and is uploaded in the background by a transfer manager while the validation goes on.
+ * close() uploads the last bundle and waits for all uploads; bundles which failed to upload stay in the bundle dir.
+ * <p>
+ * Every run also writes a summary index next to its bundles (validation_report_{run}_index.json): status counts, the
+ * date range, the bundle names and the failed tokens by check and date. Questions like "which tokens failed the order
+ * check last week" are answered by reading the indexes of the runs, without the bundles.
+ */
+@CommonsLog
+public class ReportBundleWriter implements AutoCloseable {
+
+    private static final DateTimeFormatter RUN_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss").withZone(ZoneOffset.UTC);
+
+    private final boolean enabled;
+    private final CloudStorageClient cloudStorageClient;
+    private final MetricsRegistry metricsRegistry;
+    private final Path dir;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+    private final String namePrefix;
+    private final List<PendingUpload> uploads = new ArrayList<>();
+    //results come from virtual threads, which a lock doesn't pin while a bundle is rolled over
+    private final ReentrantLock lock = new ReentrantLock();
+    //index of the run: check -> date -> failed tokens
+    private final Map<String, Map<String, Set<String>>> failedTokens = new TreeMap<>();
+    private final Map<String, Long> statusCounts = new TreeMap<>();
+    private final List<String> bundleNames = new ArrayList<>();
+    private String firstDate;
+    private String lastDate;
+    private TransferManager transferManager;
+    //rolls a bundle by age when no results come, e.g. between the polls of watch mode
+    private ScheduledExecutorService ageChecker;
+    private Bundle bundle;
+    private int sequence;
+
+    public ReportBundleWriter(Properties appProps, CloudStorageClient cloudStorageClient, MetricsRegistry metricsRegistry) {
+        this.enabled = Boolean.parseBoolean(appProps.getProperty("candle-validation.report.bundle.enabled", "false").trim());
+        this.cloudStorageClient = cloudStorageClient;
+        this.metricsRegistry = metricsRegistry;
+        this.dir = Path.of(appProps.getProperty("candle-validation.report.bundle.dir", "./report-bundles").trim());
+        this.maxBytes = getLongProperty(appProps, "candle-validation.report.bundle.max_bytes", 16L * 1024 * 1024);
+        this.maxAgeMillis = TimeUnit.SECONDS.toMillis(getLongProperty(appProps, "candle-validation.report.bundle.max_age_sec", 300));
+        this.namePrefix = "validation_report_" + RUN_FORMATTER.format(Instant.now()) + "_";
+    }
+
+    private static long getLongProperty(Properties appProps, String name, long defaultValue) {
+        String prop = appProps.getProperty(name);
+        if (prop == null || prop.isBlank()) {
+            return defaultValue;
+        }
+        return Math.max(1, Long.parseLong(prop.trim()));
+    }
+
+    /**
+     * Adds the result of a file to the current bundle. Errors are logged only, the report doesn't fail the validation.
+     */
+    public void add(TokenValidationResult result, long durationNanos) {
+        if (!enabled) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (bundle == null) {
+                bundle = new Bundle(dir.resolve(namePrefix + sequence++ + ".ndjson.gz").toFile());
+                bundleNames.add(bundle.file.getName());
+                startAgeChecker();
+            }
+            String date = getDate(result.getFileName());
+            addToIndex(result, date);
+            bundle.writer.write(toJson(result, date, durationNanos));
+            bundle.writer.write('\n');
+            bundle.entries++;
+            if (bundle.output.getByteCount() >= maxBytes || isOld(bundle)) {
+                roll();
+            }
+        } catch (Exception e) {
+            log.error("Result of token " + result.getToken() + " can't be added to the report bundle: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isOld(Bundle bundle) {
+        return System.currentTimeMillis() - bundle.openedAt >= maxAgeMillis;
+    }
+
+    //checked every tenth of max_age, so a bundle is closed at most that late
+    private void startAgeChecker() {
+        if (ageChecker == null) {
+            long period = Math.max(1, maxAgeMillis / 10);
+            ageChecker = Executors.newSingleThreadScheduledExecutor();
+            ageChecker.scheduleWithFixedDelay(this::rollIfOld, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void rollIfOld() {
+        lock.lock();
+        try {
+            if (bundle != null && isOld(bundle)) {
+                roll();
+            }
+        } catch (Exception e) {
+            log.error("Report bundle can't be closed: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //ISO date of a file named by epoch millis, local files are named with the extension
+    private static String getDate(String fileName) {
+        int dot = fileName.indexOf('.');
+        LocalDate day = TimeService.getDay(dot > 0 ? fileName.substring(0, dot) : fileName);
+        return day == null ? null : day.toString();
+    }
+
+    private void addToIndex(TokenValidationResult result, String date) {
+        statusCounts.merge(result.getStatus().name(), 1L, Long::sum);
+        if (date != null) {
+            firstDate = firstDate == null || date.compareTo(firstDate) < 0 ? date : firstDate;
+            lastDate = lastDate == null || date.compareTo(lastDate) > 0 ? date : lastDate;
+        }
+        ValidationResult validationResult = result.getValidationResult();
+        if (validationResult != null) {
+            for (String check : validationResult.getFailedChecks().keySet()) {
+                addFailedToken(check, date, result.getToken());
+            }
+        } else if (!result.isSuccess()) {
+            addFailedToken(result.getStatus().name().toLowerCase(), date, result.getToken());
+        }
+    }
+
+    private void addFailedToken(String check, String date, String token) {
+        failedTokens.computeIfAbsent(check, key -> new TreeMap<>())
+                .computeIfAbsent(date == null ? "unknown" : date, key -> new TreeSet<>())
+                .add(token);
+    }
+
+    private static String toJson(TokenValidationResult result, String date, long durationNanos) {
+        StringBuilder json = new StringBuilder("{\"token\": ").append(JsonUtils.quote(result.getToken()))
+                .append(", \"file\": ").append(JsonUtils.quote(result.getFileName()))
+                .append(", \"date\": ").append(JsonUtils.quote(date))
+                .append(", \"status\": ").append(JsonUtils.quote(result.getStatus().name()))
+                .append(", \"validated_at\": ").append(JsonUtils.quote(Instant.now().toString()))
+                .append(", \"seconds\": ").append(JsonUtils.number(durationNanos / 1e9));
+        ValidationResult validationResult = result.getValidationResult();
+        if (validationResult != null) {
+            json.append(", \"parse_seconds\": ").append(JsonUtils.number(validationResult.getParseNanos() / 1e9))
+                    .append(", \"read_seconds\": ").append(JsonUtils.number(validationResult.getReadNanos() / 1e9))
+                    .append(", \"rows\": ").append(validationResult.getRowCount())
+                    .append(", \"expected_rows\": ").append(validationResult.getExpectedCount())
+                    .append(", \"violations\": ").append(validationResult.getTotalViolations())
+                    .append(", \"checks\": {");
+            Iterator<Map.Entry<String, Long>> checks = validationResult.getFailedChecks().entrySet().iterator();
+            while (checks.hasNext()) {
+                Map.Entry<String, Long> check = checks.next();
+                json.append(JsonUtils.quote(check.getKey())).append(": ").append(check.getValue()).append(checks.hasNext() ? ", " : "");
+            }
+            json.append("}, \"violation_details\": [");
+            Iterator<Violation> violations = validationResult.getViolations().iterator();
+            while (violations.hasNext()) {
+                Violation violation = violations.next();
+                json.append("{\"row\": ").append(violation.getRow())
+                        .append(", \"check\": ").append(JsonUtils.quote(violation.getCheck()))
+                        .append(", \"values\": ").append(JsonUtils.quote(violation.getValues()))
+                        .append(violations.hasNext() ? "}, " : "}");
+            }
+            json.append(']');
+        }
+        return json.append(", \"message\": ").append(JsonUtils.quote(result.getMessage())).append('}').toString();
+    }
+
+    //closes the current bundle and starts its upload
+    private void roll() throws Exception {
+        Bundle closed = bundle;
+        bundle = null;
+        closed.writer.close();
+        log.info("Report bundle " + closed.file.getName() + " is closed, entries = " + closed.entries + ", bytes = " + closed.file.length());
+        if (transferManager == null) {
+            transferManager = cloudStorageClient.createTransferManager();
+        }
+        Upload upload = cloudStorageClient.uploadReportInBackground(transferManager, closed.file);
+        if (upload != null) {
+            uploads.add(new PendingUpload(closed.file, upload));
+        }
+        completeUploads(false);
+    }
+
+    //finishes the done uploads, or all of them when wait is set
+    private void completeUploads(boolean wait) {
+        Iterator<PendingUpload> iterator = uploads.iterator();
+        while (iterator.hasNext()) {
+            PendingUpload pending = iterator.next();
+            if (!wait && !pending.upload.isDone()) {
+                continue;
+            }
+            iterator.remove();
+            String result = "uploaded";
+            try {
+                pending.upload.waitForCompletion();
+                metricsRegistry.counter("candle_validation_report_uploaded_bytes_total", "Bytes of report bundles uploaded to S3").add(pending.file.length());
+                log.info(pending.file.getName() + " is uploaded to AWS");
+                Files.delete(pending.file.toPath());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result = "failed";
+                log.error("Upload of " + pending.file.getName() + " is interrupted");
+            } catch (AmazonClientException | IOException e) {
+                result = "failed";
+                log.error("Upload of " + pending.file.getName() + " failed, it's kept in " + dir + ": " + e.getMessage());
+            }
+            metricsRegistry.counter("candle_validation_report_bundles_total", "Report bundles by upload result", "result", result).inc();
+        }
+    }
+
+    /**
+     * Uploads the last bundle and the index of the run and waits for all uploads.
+     */
+    @Override
+    public void close() throws Exception {
+        if (!enabled) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (ageChecker != null) {
+                ageChecker.shutdownNow();
+                ageChecker = null;
+            }
+            if (bundle != null) {
+                roll();
+            }
+            if (!bundleNames.isEmpty()) {
+                writeIndex();
+            }
+            completeUploads(true);
+        } finally {
+            if (transferManager != null) {
+                transferManager.shutdownNow(false);
+                transferManager = null;
+            }
+            lock.unlock();
+        }
+    }
+
+    private void writeIndex() throws Exception {
+        File file = dir.resolve(namePrefix + "index.json").toFile();
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            writer.write("{\"run\": " + JsonUtils.quote(namePrefix.substring(0, namePrefix.length() - 1))
+                    + ", \"first_date\": " + JsonUtils.quote(firstDate) + ", \"last_date\": " + JsonUtils.quote(lastDate)
+                    + ",\n\"statuses\": {");
+            writeEntries(writer, statusCounts.entrySet().iterator(), value -> String.valueOf(value));
+            writer.write("},\n\"bundles\": [");
+            for (int i = 0; i < bundleNames.size(); i++) {
+                writer.write((i > 0 ? ", " : "") + JsonUtils.quote(bundleNames.get(i)));
+            }
+            writer.write("],\n\"failed\": {");
+            writeEntries(writer, failedTokens.entrySet().iterator(), dates -> {
+                StringBuilder json = new StringBuilder("{");
+                Iterator<Map.Entry<String, Set<String>>> iterator = dates.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<String, Set<String>> entry = iterator.next();
+                    json.append(JsonUtils.quote(entry.getKey())).append(": [");
+                    Iterator<String> tokens = entry.getValue().iterator();
+                    while (tokens.hasNext()) {
+                        json.append(JsonUtils.quote(tokens.next())).append(tokens.hasNext() ? ", " : "");
+                    }
+                    json.append(iterator.hasNext() ? "], " : "]");
+                }
+                return json.append('}').toString();
+            });
+            writer.write("}}\n");
+        }
+        log.info("Report index " + file.getName() + " is written, bundles = " + bundleNames.size());
+        Upload upload = cloudStorageClient.uploadReportInBackground(transferManager, file);
+        if (upload != null) {
+            uploads.add(new PendingUpload(file, upload));
+        }
+    }
+
+    private static <T> void writeEntries(Writer writer, Iterator<Map.Entry<String, T>> entries, Function<T, String> toJson) throws IOException {
+        while (entries.hasNext()) {
+            Map.Entry<String, T> entry = entries.next();
+            writer.write("\n  " + JsonUtils.quote(entry.getKey()) + ": " + toJson.apply(entry.getValue()) + (entries.hasNext() ? "," : "\n"));
+        }
+    }
+
+    private static class Bundle {
+        private final File file;
+        private final CountingOutputStream output;
+        private final Writer writer;
+        private final long openedAt = System.currentTimeMillis();
+        private int entries;
+
+        private Bundle(File file) throws IOException {
+            Files.createDirectories(file.toPath().toAbsolutePath().getParent());
+            this.file = file;
+            this.output = new CountingOutputStream(new FileOutputStream(file));
+            this.writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(output, CompressionUtils.BUFFER_SIZE), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static class PendingUpload {
+        private final File file;
+        private final Upload upload;
+
+        private PendingUpload(File file, Upload upload) {
+            this.file = file;
+            this.upload = upload;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package service;
+
+import lombok.extern.apachecommons.CommonsLog;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Threads of a run. Blocking S3 and Slack calls run on virtual threads, so waiting for the network doesn't hold a
+ * platform thread, and at most candle-validation.io.max_concurrency S3 requests are in flight. Parsing and validation
+ * run on candle-validation.cpu.threads platform threads (one per core by default), so thousands of tokens in flight
+ * never compete for more threads than there are cores.
+ */
+@CommonsLog
+public class TaskExecutors implements AutoCloseable {
+
+    private final int ioConcurrency;
+    private final Semaphore ioPermits;
+    private final ExecutorService cpuPool;
+
+    public TaskExecutors(Properties appProps) {
+        this.ioConcurrency = getIntProperty(appProps, "candle-validation.io.max_concurrency", 256);
+        this.ioPermits = new Semaphore(ioConcurrency);
+        int cpuThreads = getIntProperty(appProps, "candle-validation.cpu.threads", Runtime.getRuntime().availableProcessors());
+        AtomicInteger cpuThreadCount = new AtomicInteger();
+        this.cpuPool = Executors.newFixedThreadPool(cpuThreads, task -> new CpuThread(task, "cpu-" + cpuThreadCount.incrementAndGet()));
+        log.info("I/O concurrency = " + ioConcurrency + ", CPU threads = " + cpuThreads);
+    }
+
+    private static int getIntProperty(Properties appProps, String name, int defaultValue) {
+        String prop = appProps.getProperty(name);
+        if (prop == null || prop.isBlank()) {
+            return defaultValue;
+        }
+        return Math.max(1, Integer.parseInt(prop.trim()));
+    }
+
+    public int getIoConcurrency() {
+        return ioConcurrency;
+    }
+
+    /**
+     * Starts a virtual thread per task. close() waits for the started tasks, so the tasks of a try-with-resources
+     * block end with it, e.g. all byte ranges of a download or all tokens of a batch.
+     */
+    public static ExecutorService newVirtualThreadExecutor(String name) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 1).factory());
+    }
+
+    public static Thread startVirtualThread(String name, Runnable task) {
+        return Thread.ofVirtual().name(name).start(task);
+    }
+
+    /**
+     * Makes a blocking network call, waiting while max_concurrency calls are in flight.
+     */
+    public <T> T io(Supplier<T> call) {
+        ioPermits.acquireUninterruptibly();
+        try {
+            return call.get();
+        } finally {
+            ioPermits.release();
+        }
+    }
+
+    /**
+     * Opens a stream over the network, e.g. the content of a GET, waiting while max_concurrency calls are in flight.
+     * The permit is held until the stream is closed, so reading the content counts as a call in flight too.
+     * A failed call or a null stream releases it at once.
+     */
+    public InputStream ioStream(Supplier<InputStream> call) {
+        ioPermits.acquireUninterruptibly();
+        InputStream stream = null;
+        try {
+            stream = call.get();
+        } finally {
+            if (stream == null) {
+                ioPermits.release();
+            }
+        }
+        return stream == null ? null : new PermitInputStream(stream, ioPermits);
+    }
+
+    /**
+     * Runs CPU bound work on the CPU pool and waits for it. Work started on the pool runs in place.
+     */
+    public <T> T cpu(Callable<T> task) throws Exception {
+        if (Thread.currentThread() instanceof CpuThread) {
+            return task.call();
+        }
+        Future<T> future = cpuPool.submit(task);
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw (Error) e.getCause();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        cpuPool.shutdown();
+    }
+
+    //releases the permit once, however many times it's closed
+    private static class PermitInputStream extends FilterInputStream {
+        private final Semaphore permits;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private PermitInputStream(InputStream in, Semaphore permits) {
+            super(in);
+            this.permits = permits;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (released.compareAndSet(false, true)) {
+                    permits.release();
+                }
+            }
+        }
+    }
+
+    private static class CpuThread extends Thread {
+        private CpuThread(Runnable task, String name) {
+            super(task, name);
+            setDaemon(true);
+        }
+    }
+}
@@ -1,14 +1,20 @@
 package service;
 
 import lombok.extern.apachecommons.CommonsLog;
+import org.apache.log4j.Appender;
 import org.apache.log4j.Logger;
 import utilities.TimestampFileAppender;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.time.format.TextStyle;
 import java.util.*;
 
@@ -21,17 +27,19 @@ public class TimeService {
     private final Properties appProps;
     private final ZoneId zoneId;
     private final List<DayOfWeek> weekEndDays;
+    private final Set<LocalDate> holidays;
     private final TimestampFileAppender timestampFileAppender;
 
-    public TimeService(Properties appProps) {
+    public TimeService(Properties appProps) throws IOException {
         this.appProps = appProps;
         this.timestampFileAppender = (TimestampFileAppender) Logger.getRootLogger().getAppender("rollingFile");
         this.zoneId = ZoneId.of(getTimeZone());
         this.weekEndDays = getPropsWeekEndDays();
+        this.holidays = getPropsHolidays();
     }
 
     private String getTimeZone() {
-        String timeZone = timestampFileAppender.getTimeZone();
+        String timeZone = timestampFileAppender == null ? null : timestampFileAppender.getTimeZone();
         if (timeZone == null || timeZone.isBlank()) {
             return "UTC+05:30";
         } else return timeZone.trim();
@@ -39,11 +47,48 @@ public class TimeService {
 
     public String getLocalDateTimeInMillis() throws Exception {
         LocalDateTime fileNameDate = getCheckDay();
-        String result = String.valueOf(fileNameDate.atZone(ZoneId.of("UTC+00:00")).toInstant().toEpochMilli());
+        String result = getFileName(fileNameDate.toLocalDate());
         log.info("FileNameDate in millis = " + result);
         return result;
     }
 
+    public static String getFileName(LocalDate date) {
+        return String.valueOf(date.atStartOfDay().atZone(ZoneId.of("UTC+00:00")).toInstant().toEpochMilli());
+    }
+
+    /**
+     * @return the day of a file name made by getFileName, null for other names
+     */
+    public static LocalDate getDay(String fileName) {
+        try {
+            return LocalDate.ofEpochDay(Math.floorDiv(Long.parseLong(fileName), 24L * 60 * 60 * 1000));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Trading days from candle-validation.range.start to candle-validation.range.end inclusive,
+     * without weekEnd days and holidays.
+     */
+    public List<LocalDate> getRangeTradingDays() throws Exception {
+        String startStr = appProps.getProperty("candle-validation.range.start");
+        String endStr = appProps.getProperty("candle-validation.range.end");
+        if (startStr == null || startStr.isBlank() || endStr == null || endStr.isBlank()) {
+            throw new Exception("candle-validation.range.start and candle-validation.range.end are required for range mode");
+        }
+        LocalDate start = LocalDate.parse(startStr.trim(), FORMATTER_ONLY_DAY);
+        LocalDate end = LocalDate.parse(endStr.trim(), FORMATTER_ONLY_DAY);
+        List<LocalDate> result = new ArrayList<>();
+        for (LocalDate date = start; !date.isAfter(end); date = date.plusDays(1L)) {
+            if (!isWeekEnd(date.atStartOfDay())) {
+                result.add(date);
+            }
+        }
+        log.info("Trading days from " + start.format(FORMATTER_ONLY_DAY) + " to " + end.format(FORMATTER_ONLY_DAY) + " = " + result.size());
+        return result;
+    }
+
     private LocalDateTime getCheckDay() throws Exception {
         String checkDateStr = appProps.getProperty("candle-validation.checkingDate");
         log.info("CheckDate from props = " + checkDateStr);
@@ -59,7 +104,8 @@ public class TimeService {
         while (isWeekEnd(fileNameDate)) {
             fileNameDate = fileNameDate.minusDays(1L);
             count++;
-            if (count >= 7) {
+            //a week of holidays next to a weekend is still a valid case
+            if (count >= 14) {
                 throw new Exception("Can't define date for file name");
             }
         }
@@ -67,9 +113,45 @@ public class TimeService {
         return fileNameDate;
     }
 
+    /**
+     * @return the last trading day before the given one
+     */
+    public LocalDate getPreviousTradingDay(LocalDate date) {
+        LocalDate result = date.minusDays(1L);
+        //a year of holidays can't happen, the limit only guards against a week of weekEnd days
+        for (int i = 0; i < 366 && isWeekEnd(result.atStartOfDay()); i++) {
+            result = result.minusDays(1L);
+        }
+        return result;
+    }
+
     private boolean isWeekEnd(LocalDateTime date) {
         DayOfWeek checkedDay = date.getDayOfWeek();
-        return weekEndDays.contains(checkedDay);
+        return weekEndDays.contains(checkedDay) || holidays.contains(date.toLocalDate());
+    }
+
+    //dd.MM.yyyy per line, lines starting with # are comments. A holiday missing from a broken file would be checked
+    //as a trading day, so a file which can't be read or parsed fails the run
+    private Set<LocalDate> getPropsHolidays() throws IOException {
+        String prop = appProps.getProperty("candle-validation.holidays.file");
+        Set<LocalDate> result = new HashSet<>();
+        if (prop == null || prop.isBlank()) {
+            return result;
+        }
+        List<String> lines = Files.readAllLines(Path.of(prop.trim()), StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (!line.isBlank() && !line.startsWith("#")) {
+                try {
+                    result.add(LocalDate.parse(line, FORMATTER_ONLY_DAY));
+                } catch (DateTimeParseException e) {
+                    throw new IOException("Holidays file " + prop + " has a wrong date at line " + (i + 1) + ": \"" + line
+                            + "\", dd.MM.yyyy is expected", e);
+                }
+            }
+        }
+        log.info("Holidays from " + prop + ": " + result.size());
+        return result;
     }
 
     private List<DayOfWeek> getPropsWeekEndDays() {
@@ -98,6 +180,24 @@ public class TimeService {
         return result;
     }
 
+    public ZoneId getZoneId() {
+        return zoneId;
+    }
+
+    public List<DayOfWeek> getWeekEndDays() {
+        return Collections.unmodifiableList(weekEndDays);
+    }
+
+    /**
+     * Starts a new report log, so every run of the resident mode uploads only its own log.
+     */
+    public static void startNewLogFile() throws IOException {
+        Appender appender = Logger.getRootLogger().getAppender("rollingFile");
+        if (appender instanceof TimestampFileAppender) {
+            ((TimestampFileAppender) appender).startNewFile();
+        }
+    }
+
     public String getLogFileName() {
         return this.timestampFileAppender.getFileName();
     }
@@ -0,0 +1,250 @@
+package service;
+
+import lombok.extern.apachecommons.CommonsLog;
+import model.TokenState;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Properties;
+
+/**
+ * Summaries of the last validated files of every token, kept in a memory mapped file instead of the heap.
+ * The file is an open addressing hash table of fixed size records keyed by the token as a long: numeric tokens are
+ * used as is, others by a 64 bit hash. A record keeps the last two validated days of the token, so a re-run of a day
+ * still finds the day before it. A record takes 144 bytes, the table grows twice when it's 70% full.
+ */
+@CommonsLog
+public class TokenStateStore implements AutoCloseable {
+
+    private static final int MAGIC = 0x43565453;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int DAY_SIZE = 64;
+    //key, used flag, padding, the latest day, the day before it
+    private static final int RECORD_SIZE = 16 + 2 * DAY_SIZE;
+    private static final double MAX_LOAD = 0.7;
+    private static final long NON_NUMERIC_KEY = Long.MIN_VALUE;
+
+    private final boolean enabled;
+    private final Path file;
+    private final TimeService timeService;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int size;
+
+    public TokenStateStore(Properties appProps, TimeService timeService) throws IOException {
+        this.enabled = Boolean.parseBoolean(appProps.getProperty("candle-validation.continuity.enabled", "false").trim());
+        this.file = Path.of(appProps.getProperty("candle-validation.continuity.state_file", "./token-state.bin").trim());
+        this.timeService = timeService;
+        if (enabled) {
+            int initialCapacity = Integer.parseInt(appProps.getProperty("candle-validation.continuity.initial_capacity", "1024").trim());
+            open(Math.max(16, Integer.highestOneBit(Math.max(1, initialCapacity - 1)) << 1));
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    private void open(int initialCapacity) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        boolean exists = Files.exists(file) && Files.size(file) >= HEADER_SIZE;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (exists) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("Token state file " + file + " has unknown format");
+            }
+            capacity = header.getInt(8);
+            size = header.getInt(12);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+        } else {
+            capacity = initialCapacity;
+            size = 0;
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, capacity);
+            buffer.putInt(12, size);
+        }
+        log.info("Token states loaded = " + size + ", capacity = " + capacity);
+    }
+
+    static long getKey(String token) {
+        String trimmed = token.trim();
+        try {
+            long key = Long.parseLong(trimmed);
+            if (key >= 0) {
+                return key;
+            }
+        } catch (NumberFormatException ignored) {
+            //hashed below
+        }
+        //FNV-1a, the sign bit keeps hashes apart from numeric tokens
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : trimmed.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash | NON_NUMERIC_KEY;
+    }
+
+    private static int getSlot(long key, int capacity) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed >>> 32) & (capacity - 1);
+    }
+
+    //index of the record of the key, or of the empty record where it has to be put
+    private static int find(MappedByteBuffer buffer, int capacity, long key) {
+        int slot = getSlot(key, capacity);
+        while (true) {
+            int position = HEADER_SIZE + slot * RECORD_SIZE;
+            if (buffer.getInt(position + 8) == 0 || buffer.getLong(position) == key) {
+                return position;
+            }
+            slot = (slot + 1) & (capacity - 1);
+        }
+    }
+
+    /**
+     * @return the summary of the file of the token for the day, null if it wasn't validated
+     */
+    public synchronized TokenState get(String token, LocalDate day) {
+        if (!enabled) {
+            return null;
+        }
+        int position = find(buffer, capacity, getKey(token));
+        if (buffer.getInt(position + 8) == 0) {
+            return null;
+        }
+        for (int i = 0; i < 2; i++) {
+            int dayPosition = position + 16 + i * DAY_SIZE;
+            if (buffer.getLong(dayPosition) == day.toEpochDay()) {
+                return readDay(dayPosition);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the summary of the file of the token for the trading day before the given one, null if it wasn't validated
+     */
+    public TokenState getPreviousTradingDay(String token, LocalDate day) {
+        return enabled ? get(token, timeService.getPreviousTradingDay(day)) : null;
+    }
+
+    public synchronized void put(String token, TokenState state) throws IOException {
+        if (!enabled) {
+            return;
+        }
+        if (size + 1 > capacity * MAX_LOAD) {
+            grow();
+        }
+        long key = getKey(token);
+        int position = find(buffer, capacity, key);
+        int latest = position + 16;
+        int previous = latest + DAY_SIZE;
+        if (buffer.getInt(position + 8) == 0) {
+            buffer.putLong(position, key);
+            buffer.putInt(position + 8, 1);
+            writeDay(latest, state);
+            buffer.putLong(previous, Long.MIN_VALUE);
+            buffer.putInt(12, ++size);
+            return;
+        }
+        long latestDay = buffer.getLong(latest);
+        if (state.getEpochDay() == latestDay) {
+            writeDay(latest, state);
+        } else if (state.getEpochDay() > latestDay) {
+            copyDay(latest, previous);
+            writeDay(latest, state);
+        } else if (state.getEpochDay() >= buffer.getLong(previous)) {
+            //an older day validated later, e.g. in range mode
+            writeDay(previous, state);
+        }
+    }
+
+    private TokenState readDay(int position) {
+        return new TokenState(buffer.getLong(position), buffer.getLong(position + 8), buffer.getLong(position + 16),
+                buffer.getLong(position + 24), buffer.getDouble(position + 32), buffer.getDouble(position + 40),
+                buffer.getDouble(position + 48), buffer.getDouble(position + 56));
+    }
+
+    private void writeDay(int position, TokenState state) {
+        buffer.putLong(position, state.getEpochDay());
+        buffer.putLong(position + 8, state.getRowCount());
+        buffer.putLong(position + 16, state.getFirstTimestamp());
+        buffer.putLong(position + 24, state.getLastTimestamp());
+        buffer.putDouble(position + 32, state.getLastOpen());
+        buffer.putDouble(position + 40, state.getLastHigh());
+        buffer.putDouble(position + 48, state.getLastLow());
+        buffer.putDouble(position + 56, state.getLastClose());
+    }
+
+    private void copyDay(int from, int to) {
+        for (int i = 0; i < DAY_SIZE; i += 8) {
+            buffer.putLong(to + i, buffer.getLong(from + i));
+        }
+    }
+
+    //rehashes all records into a table of twice the capacity, written next to the file and moved over it
+    private void grow() throws IOException {
+        int newCapacity = capacity * 2;
+        Path tempFile = Files.createTempFile(file.toAbsolutePath().getParent(), "token-state", ".tmp");
+        try (FileChannel newChannel = FileChannel.open(tempFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer newBuffer = newChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) newCapacity * RECORD_SIZE);
+            newBuffer.putInt(0, MAGIC);
+            newBuffer.putInt(4, VERSION);
+            newBuffer.putInt(8, newCapacity);
+            newBuffer.putInt(12, size);
+            for (int slot = 0; slot < capacity; slot++) {
+                int position = HEADER_SIZE + slot * RECORD_SIZE;
+                if (buffer.getInt(position + 8) != 0) {
+                    int newPosition = find(newBuffer, newCapacity, buffer.getLong(position));
+                    for (int i = 0; i < RECORD_SIZE; i += 8) {
+                        newBuffer.putLong(newPosition + i, buffer.getLong(position + i));
+                    }
+                }
+            }
+            newBuffer.force();
+        }
+        channel.close();
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        capacity = newCapacity;
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+        log.info("Token state capacity grown to " + capacity);
+    }
+
+    /**
+     * Writes the mapped records to disk, the store stays open.
+     */
+    public synchronized void flush() {
+        if (channel != null) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * Writes the mapped records to disk.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        buffer.force();
+        channel.close();
+        channel = null;
+        log.info("Token states saved = " + size);
+    }
+}
@@ -0,0 +1,269 @@
+package service;
+
+import anomaly.AnomalyScan;
+import exceptions.ValidationException;
+import lombok.extern.apachecommons.CommonsLog;
+import metrics.MetricsRegistry;
+import model.ObjectVersion;
+import model.TokenState;
+import model.TokenValidationResult;
+import model.ValidationResult;
+import parser.CandleCacheReader;
+import parser.CandleCacheWriter;
+import rules.CandleRuleFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Validates the file of one token. Clients are shared, so one instance can serve every token of a run.
+ * The calling thread, a virtual one in batch modes, makes the S3 calls; parsing and validation run on the CPU pool.
+ */
+@CommonsLog
+public class TokenValidationService {
+
+    private final Properties appProps;
+    private final CloudStorageClient cloudStorageClient;
+    private final WebhookClient webhookClient;
+    private final String fileName;
+    private final String fileExtension;
+    private final boolean streamMode;
+    private final CandleRuleFactory ruleFactory;
+    private final ValidationIndex validationIndex;
+    private final MetricsRegistry metricsRegistry;
+    private final TokenStateStore tokenStateStore;
+    private final BaselineStore baselineStore;
+    private final ReportBundleWriter reportBundleWriter;
+    private final TaskExecutors taskExecutors;
+    //directory of the candle caches, null when they are disabled
+    private final Path cacheDir;
+
+    public TokenValidationService(Properties appProps, CloudStorageClient cloudStorageClient, WebhookClient webhookClient,
+                                  CandleRuleFactory ruleFactory, ValidationIndex validationIndex, TokenStateStore tokenStateStore,
+                                  BaselineStore baselineStore, ReportBundleWriter reportBundleWriter, TaskExecutors taskExecutors, MetricsRegistry metricsRegistry,
+                                  String fileName, String fileExtension) {
+        this.appProps = appProps;
+        this.taskExecutors = taskExecutors;
+        this.tokenStateStore = tokenStateStore;
+        this.baselineStore = baselineStore;
+        this.reportBundleWriter = reportBundleWriter;
+        this.metricsRegistry = metricsRegistry;
+        this.ruleFactory = ruleFactory;
+        this.validationIndex = validationIndex;
+        this.cloudStorageClient = cloudStorageClient;
+        this.webhookClient = webhookClient;
+        this.fileName = fileName;
+        this.fileExtension = fileExtension;
+        this.streamMode = !"file".equalsIgnoreCase(appProps.getProperty("candle-validation.download.mode", "stream").trim());
+        boolean cacheEnabled = Boolean.parseBoolean(appProps.getProperty("candle-validation.cache.enabled", "false").trim());
+        this.cacheDir = cacheEnabled ? Path.of(appProps.getProperty("candle-validation.cache.dir", "./candle-cache").trim()) : null;
+    }
+
+    /**
+     * Checks which tokens have the file in one go, before they are validated.
+     */
+    public void resolveExistingFiles(List<String> tokens) throws Exception {
+        cloudStorageClient.resolveExistingFiles(tokens, fileName);
+    }
+
+    /**
+     * Checks which of the files every token has, e.g. all days of a range, with one listing per token folder.
+     */
+    public void resolveExistingFiles(List<String> tokens, Collection<String> fileNames) throws Exception {
+        cloudStorageClient.resolveExistingFiles(tokens, fileNames);
+    }
+
+    public TokenValidationResult validate(String token) {
+        return validate(token, fileName);
+    }
+
+    /**
+     * Validates the file of the token for another day than the one of this run.
+     */
+    public TokenValidationResult validate(String token, String fileName) {
+        long start = System.nanoTime();
+        TokenValidationResult result = validateToken(token, fileName);
+        recordMetrics(result, start);
+        reportBundleWriter.add(result, System.nanoTime() - start);
+        return result;
+    }
+
+    private TokenValidationResult validateToken(String token, String fileName) {
+        log.info("Token = " + token + ", file = " + fileName);
+        ParseCsvService parseCsvService = new ParseCsvService(appProps, fileName, fileExtension, token, ruleFactory, metricsRegistry);
+        TokenValidationResult result;
+        try {
+            try {
+                cloudStorageClient.isFileExisted(token, fileName);
+            } catch (ValidationException ex) {
+                webhookClient.sendMessageToSlack(ex.getMessage());
+                return new TokenValidationResult(token, fileName, TokenValidationResult.Status.MISSING, ex.getMessage(), null);
+            }
+            ObjectVersion version = cloudStorageClient.getFileVersion(token, fileName);
+            TokenValidationResult.Status verdict = validationIndex.getVerdict(version);
+            if (verdict != null) {
+                log.info("File " + version + " is not changed since the last validation, verdict = " + verdict);
+                metricsRegistry.counter("candle_validation_index_hits_total", "Files skipped as not changed since the last validation").inc();
+                return new TokenValidationResult(token, fileName, verdict, "File for token " + token + " is not changed since the last validation", null);
+            }
+            LocalDate day = TimeService.getDay(fileName);
+            parseCsvService.setPreviousState(getPreviousState(token, day));
+            parseCsvService.setAnomalyDetector(baselineStore.createDetector(token));
+            ValidationResult validationResult = validateFile(token, fileName, version, parseCsvService);
+            putState(token, day, parseCsvService);
+            putBaseline(token, day, parseCsvService, validationResult);
+            result = createResult(token, fileName, parseCsvService, validationResult, "File for token " + token + " checked successfully");
+            validationIndex.put(version, result.getStatus());
+            sendToSlack(result);
+        } catch (Exception e) {
+            log.error("Token " + token + " validation error: " + e.getMessage());
+            result = new TokenValidationResult(token, fileName, TokenValidationResult.Status.ERROR, e.getMessage(), null);
+        } finally {
+            cloudStorageClient.deleteTempFile(token, fileName);
+        }
+        return result;
+    }
+
+    /**
+     * Validates a file which is already on local disk, no S3 calls are made.
+     */
+    public TokenValidationResult validateLocal(String token, File file) {
+        long start = System.nanoTime();
+        TokenValidationResult result = validateLocalFile(token, file);
+        recordMetrics(result, start);
+        reportBundleWriter.add(result, System.nanoTime() - start);
+        return result;
+    }
+
+    private TokenValidationResult validateLocalFile(String token, File file) {
+        log.info("Token = " + token + ", local file = " + file.getPath());
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        ParseCsvService parseCsvService = dot > 0
+                ? new ParseCsvService(appProps, name.substring(0, dot), name.substring(dot), token, ruleFactory, metricsRegistry)
+                : new ParseCsvService(appProps, name, "", token, ruleFactory, metricsRegistry);
+        TokenValidationResult result;
+        try {
+            LocalDate day = TimeService.getDay(dot > 0 ? name.substring(0, dot) : name);
+            parseCsvService.setPreviousState(getPreviousState(token, day));
+            parseCsvService.setAnomalyDetector(baselineStore.createDetector(token));
+            ValidationResult validationResult = parseCsvService.validateMapped(file);
+            putState(token, day, parseCsvService);
+            putBaseline(token, day, parseCsvService, validationResult);
+            result = createResult(token, name, parseCsvService, validationResult, "File " + name + " for token " + token + " checked successfully");
+            sendToSlack(result);
+        } catch (Exception e) {
+            log.error("Local file " + file.getPath() + " validation error: " + e.getMessage());
+            result = new TokenValidationResult(token, name, TokenValidationResult.Status.ERROR, e.getMessage(), null);
+        }
+        return result;
+    }
+
+    /**
+     * Saves the validation index, token states and baselines, e.g. after every poll of a process which never ends.
+     */
+    public void saveState() throws IOException {
+        validationIndex.save();
+        tokenStateStore.flush();
+        baselineStore.save();
+    }
+
+    private void sendToSlack(TokenValidationResult result) {
+        if (result.isSuccess()) {
+            webhookClient.sendSuccessToSlack(result.getMessage());
+        } else {
+            webhookClient.sendMessageToSlack(result.getMessage());
+        }
+    }
+
+    private TokenState getPreviousState(String token, LocalDate day) {
+        return day == null ? null : tokenStateStore.getPreviousTradingDay(token, day);
+    }
+
+    private void putState(String token, LocalDate day, ParseCsvService parseCsvService) throws IOException {
+        TokenState state = day == null ? null : parseCsvService.getFileState(day);
+        if (state != null) {
+            tokenStateStore.put(token, state);
+        }
+    }
+
+    //a stuck, empty or cut off day would move the baseline towards itself, so it isn't added
+    private void putBaseline(String token, LocalDate day, ParseCsvService parseCsvService, ValidationResult validationResult) throws IOException {
+        AnomalyScan scan = parseCsvService.getAnomalyScan();
+        if (day != null && scan != null && !scan.isFileAnomaly() && validationResult.isCountValid()) {
+            baselineStore.merge(token, day, scan);
+        }
+    }
+
+    //end to end latency of a token: existence check, download, parsing, validation and queueing of the Slack message
+    private void recordMetrics(TokenValidationResult result, long startNanos) {
+        String status = result.getStatus().name().toLowerCase();
+        metricsRegistry.histogram("candle_validation_token_seconds", "Validation latency of a token file", "status", status).observeSince(startNanos);
+        metricsRegistry.counter("candle_validation_files_total", "Validated files by status", "status", status).inc();
+    }
+
+    private static TokenValidationResult createResult(String token, String fileName, ParseCsvService parseCsvService,
+                                                      ValidationResult validationResult, String successMessage) {
+        if (validationResult.isValid()) {
+            return new TokenValidationResult(token, fileName, TokenValidationResult.Status.SUCCESS, successMessage, validationResult);
+        }
+        return new TokenValidationResult(token, fileName, TokenValidationResult.Status.FAILED, parseCsvService.getSummary(validationResult), validationResult);
+    }
+
+    /**
+     * Validates the candle cache of the file when it was written from the same S3 object, otherwise validates the file
+     * and writes its cache. Rules and continuity are checked either way, so a changed configuration is applied to cached files too.
+     */
+    private ValidationResult validateFile(String token, String fileName, ObjectVersion version, ParseCsvService parseCsvService) throws Exception {
+        if (cacheDir == null) {
+            return validateSource(token, fileName, parseCsvService);
+        }
+        Path cacheFile = cacheDir.resolve(token.trim()).resolve(fileName + ".cvc");
+        if (Files.exists(cacheFile)) {
+            try (CandleCacheReader reader = new CandleCacheReader(cacheFile)) {
+                if (reader.getFooter().isWrittenFrom(version.getETag(), version.getSize())) {
+                    log.info("Validating candle cache " + cacheFile + ": " + reader.getFooter());
+                    metricsRegistry.counter("candle_validation_cache_hits_total", "Files validated from the candle cache").inc();
+                    return taskExecutors.cpu(() -> parseCsvService.validate(reader));
+                }
+            } catch (IOException e) {
+                log.info("Candle cache " + cacheFile + " can't be read, validating the file: " + e.getMessage());
+            }
+        }
+        CandleCacheWriter cacheWriter = new CandleCacheWriter();
+        parseCsvService.setCacheWriter(cacheWriter);
+        ValidationResult result = validateSource(token, fileName, parseCsvService);
+        if (cacheWriter.isCacheable()) {
+            try {
+                cacheWriter.write(cacheFile, result, version.getETag(), version.getSize());
+            } catch (IOException e) {
+                log.error("Candle cache " + cacheFile + " can't be written: " + e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Stream mode parses the S3 content on the CPU pool as it arrives, without a copy in memory or on disk; a failed
+     * stream is retried through a temp file.
+     */
+    private ValidationResult validateSource(String token, String fileName, ParseCsvService parseCsvService) throws Exception {
+        if (streamMode) {
+            try (InputStream inputStream = cloudStorageClient.openFileStream(token, fileName)) {
+                return taskExecutors.cpu(() -> parseCsvService.validate(inputStream));
+            } catch (IOException e) {
+                log.info("Streaming of the file for token " + token + " failed, retrying through temp file: " + e.getMessage());
+            }
+        }
+        File file = cloudStorageClient.downloadFile(token, fileName);
+        log.info("File is downloaded = " + file.exists());
+        return taskExecutors.cpu(() -> parseCsvService.validate(file));
+    }
+}
@@ -0,0 +1,124 @@
+package service;
+
+import lombok.extern.apachecommons.CommonsLog;
+import model.ObjectVersion;
+import model.TokenValidationResult;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local file based index of validated S3 objects: bucket + key -> ETag, size and the last verdict.
+ * An object whose ETag and size still match doesn't need to be downloaded again.
+ * Entries older than candle-validation.index.max_age_days are evicted when the index is saved.
+ */
+@CommonsLog
+public class ValidationIndex {
+
+    private static final String SEPARATOR = "\t";
+
+    private final Path indexFile;
+    private final boolean enabled;
+    private final boolean force;
+    private final long maxAgeMillis;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public ValidationIndex(Properties appProps, boolean force) throws IOException {
+        this.indexFile = Path.of(appProps.getProperty("candle-validation.index.file", "./validation-index.tsv").trim());
+        this.enabled = Boolean.parseBoolean(appProps.getProperty("candle-validation.index.enabled", "false").trim());
+        this.force = force || Boolean.parseBoolean(appProps.getProperty("candle-validation.index.force", "false").trim());
+        this.maxAgeMillis = TimeUnit.DAYS.toMillis(Long.parseLong(appProps.getProperty("candle-validation.index.max_age_days", "30").trim()));
+        if (enabled) {
+            load();
+        }
+    }
+
+    private static String getId(String bucket, String key) {
+        return bucket + SEPARATOR + key;
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(indexFile)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(SEPARATOR, -1);
+                if (fields.length != 6) {
+                    continue;
+                }
+                Entry entry = new Entry(fields[2], Long.parseLong(fields[3]), TokenValidationResult.Status.valueOf(fields[4]), Long.parseLong(fields[5]));
+                entries.put(getId(fields[0], fields[1]), entry);
+            }
+        }
+        log.info("Validation index entries loaded = " + entries.size());
+    }
+
+    /**
+     * @return verdict of the last validation of the same object version, null if it has to be validated
+     */
+    public TokenValidationResult.Status getVerdict(ObjectVersion version) {
+        if (!enabled || force || version.getETag() == null) {
+            return null;
+        }
+        Entry entry = entries.get(getId(version.getBucket(), version.getKey()));
+        if (entry == null || entry.size != version.getSize() || !entry.eTag.equals(version.getETag())) {
+            return null;
+        }
+        return entry.status;
+    }
+
+    public void put(ObjectVersion version, TokenValidationResult.Status status) {
+        if (!enabled || version.getETag() == null) {
+            return;
+        }
+        entries.put(getId(version.getBucket(), version.getKey()), new Entry(version.getETag(), version.getSize(), status, System.currentTimeMillis()));
+    }
+
+    /**
+     * Writes the index without expired entries, through a temp file so a failed run can't corrupt it.
+     */
+    public void save() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        long minValidatedAt = System.currentTimeMillis() - maxAgeMillis;
+        entries.values().removeIf(entry -> entry.validatedAt < minValidatedAt);
+        Path parent = indexFile.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tempFile = Files.createTempFile(parent, "validation-index", ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Entry> item : entries.entrySet()) {
+                Entry entry = item.getValue();
+                writer.write(item.getKey() + SEPARATOR + entry.eTag + SEPARATOR + entry.size + SEPARATOR + entry.status + SEPARATOR + entry.validatedAt);
+                writer.newLine();
+            }
+        }
+        Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("Validation index entries saved = " + entries.size());
+    }
+
+    private static class Entry {
+        private final String eTag;
+        private final long size;
+        private final TokenValidationResult.Status status;
+        private final long validatedAt;
+
+        private Entry(String eTag, long size, TokenValidationResult.Status status, long validatedAt) {
+            this.eTag = eTag;
+            this.size = size;
+            this.status = status;
+            this.validatedAt = validatedAt;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package service;
+
+import com.amazonaws.services.s3.event.S3EventNotification;
+import lombok.extern.apachecommons.CommonsLog;
+import model.ObjectVersion;
+import model.TokenValidationResult;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Watch mode: new files are validated as soon as they are uploaded instead of once a day.
+ * Every poll lists each token folder after the last seen key (start-after cursor), so the cost of a poll depends on
+ * the number of tokens and new files, not on all files in the bucket. Cursors are saved to
+ * candle-validation.watch.cursor_file after every poll, so a restart continues where it stopped.
+ * <p>
+ * Bucket notifications can be consumed from candle-validation.watch.notification_dir, a local stand-in for a queue:
+ * every *.json file holds an S3 event notification, it's processed in name order and deleted afterwards.
+ * Files validated from notifications are skipped by the next poll.
+ */
+@CommonsLog
+public class WatchService {
+
+    private static final String SEPARATOR = "\t";
+
+    private final CloudStorageClient cloudStorageClient;
+    private final TokenValidationService tokenValidationService;
+    private final BatchValidationService batchValidationService;
+    private final TimeService timeService;
+    private final Path cursorFile;
+    private final File notificationDir;
+    private final long pollIntervalMillis;
+    private final long notificationIntervalMillis;
+    private final long tokenRefreshMillis;
+    private final int initialDays;
+    //tokens polled at once, as for the batch modes
+    private final int maxInFlight;
+    //token -> key of the last validated file
+    private final Map<String, String> cursors = new ConcurrentHashMap<>();
+    //key -> ETag of files validated from notifications after the cursor of their token, not yet seen by a poll
+    private final Map<String, String> notified = new ConcurrentHashMap<>();
+
+    public WatchService(Properties appProps, CloudStorageClient cloudStorageClient, TokenValidationService tokenValidationService,
+                        BatchValidationService batchValidationService, TimeService timeService, TaskExecutors taskExecutors)
+            throws IOException {
+        this.cloudStorageClient = cloudStorageClient;
+        this.tokenValidationService = tokenValidationService;
+        this.batchValidationService = batchValidationService;
+        this.timeService = timeService;
+        this.cursorFile = Path.of(appProps.getProperty("candle-validation.watch.cursor_file", "./watch-cursor.tsv").trim());
+        String dir = appProps.getProperty("candle-validation.watch.notification_dir");
+        this.notificationDir = dir == null || dir.isBlank() ? null : new File(dir.trim());
+        this.pollIntervalMillis = getLongProperty(appProps, "candle-validation.watch.poll_interval_sec", 60) * 1000;
+        this.notificationIntervalMillis = getLongProperty(appProps, "candle-validation.watch.notification_interval_ms", 1000);
+        this.tokenRefreshMillis = getLongProperty(appProps, "candle-validation.watch.token_refresh_sec", 3600) * 1000;
+        this.initialDays = (int) getLongProperty(appProps, "candle-validation.watch.initial_days", 1);
+        this.maxInFlight = taskExecutors.getIoConcurrency();
+        loadCursors();
+    }
+
+    private static long getLongProperty(Properties appProps, String name, long defaultValue) {
+        String prop = appProps.getProperty(name);
+        if (prop == null || prop.isBlank()) {
+            return defaultValue;
+        }
+        return Math.max(1, Long.parseLong(prop.trim()));
+    }
+
+    private void loadCursors() throws IOException {
+        if (!Files.exists(cursorFile)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(cursorFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(SEPARATOR, -1);
+                if (fields.length == 2) {
+                    cursors.put(fields[0], fields[1]);
+                }
+            }
+        }
+        log.info("Watch cursors loaded = " + cursors.size());
+    }
+
+    private void saveCursors() throws IOException {
+        Path parent = cursorFile.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tempFile = Files.createTempFile(parent, "watch-cursor", ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String> entry : cursors.entrySet()) {
+                writer.write(entry.getKey() + SEPARATOR + entry.getValue());
+                writer.newLine();
+            }
+        }
+        Files.move(tempFile, cursorFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Polls and consumes notifications until the thread is interrupted, e.g. by the shutdown hook on SIGTERM.
+     */
+    public void run() throws Exception {
+        List<String> tokens = batchValidationService.getTokens();
+        long tokensRefreshedAt = System.currentTimeMillis();
+        long nextPoll = 0;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                if (notificationDir != null) {
+                    processNotifications();
+                }
+                long now = System.currentTimeMillis();
+                if (now >= nextPoll) {
+                    if (now - tokensRefreshedAt >= tokenRefreshMillis) {
+                        tokens = batchValidationService.getTokens();
+                        tokensRefreshedAt = now;
+                    }
+                    poll(tokens);
+                    nextPoll = System.currentTimeMillis() + pollIntervalMillis;
+                }
+                long wait = nextPoll - System.currentTimeMillis();
+                Thread.sleep(Math.max(1, notificationDir != null ? Math.min(wait, notificationIntervalMillis) : wait));
+            }
+        } catch (InterruptedException e) {
+            log.info("Watch is stopped");
+        } finally {
+            saveCursors();
+        }
+    }
+
+    /**
+     * Lists new files of every token concurrently, on a virtual thread per token, and validates them in key order
+     * of the token, max_concurrency tokens at once. The cursor of a token moves after each validated file.
+     * The poll ends with its last token.
+     */
+    private void poll(List<String> tokens) throws Exception {
+        long start = System.currentTimeMillis();
+        String initialCursorName = TimeService.getFileName(LocalDate.now(timeService.getZoneId()).minusDays(initialDays));
+        List<Future<Integer>> futures = new ArrayList<>(tokens.size());
+        int validated = 0;
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        try (ExecutorService executor = TaskExecutors.newVirtualThreadExecutor("watch-token")) {
+            for (String token : tokens) {
+                inFlight.acquire();
+                futures.add(executor.submit(() -> {
+                    try {
+                        return pollToken(token, initialCursorName);
+                    } finally {
+                        inFlight.release();
+                    }
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                try {
+                    validated += future.get();
+                } catch (ExecutionException e) {
+                    //the cursor stays, so the files are listed again by the next poll
+                    log.error("Watch poll failed: " + e.getCause().getMessage());
+                }
+            }
+        }
+        saveCursors();
+        tokenValidationService.saveState();
+        forgetNotified(tokens);
+        cloudStorageClient.clearObjectCache();
+        log.info("Watch poll of " + tokens.size() + " tokens took " + (System.currentTimeMillis() - start) + " ms, new files = " + validated);
+    }
+
+    private int pollToken(String token, String initialCursorName) {
+        String cursor = cursors.computeIfAbsent(token, key -> cloudStorageClient.getFileKey(token, initialCursorName));
+        int validated = 0;
+        for (ObjectVersion version : cloudStorageClient.listNewFiles(token, cursor)) {
+            String notifiedETag = notified.remove(version.getKey());
+            if (notifiedETag == null || !notifiedETag.equals(version.getETag())) {
+                validate(version);
+                validated++;
+            }
+            cursors.put(token, version.getKey());
+        }
+        return validated;
+    }
+
+    //a notified file which no poll is going to list, at or before the cursor or of a token which isn't polled, is forgotten
+    private void forgetNotified(List<String> tokens) {
+        Set<String> polled = new HashSet<>(tokens);
+        notified.keySet().removeIf(key -> {
+            String[] tokenAndFileName = cloudStorageClient.parseFileKey(key);
+            String cursor = tokenAndFileName == null ? null : cursors.get(tokenAndFileName[0]);
+            return cursor == null || !polled.contains(tokenAndFileName[0]) || key.compareTo(cursor) <= 0;
+        });
+    }
+
+    private void processNotifications() throws IOException {
+        File[] files = notificationDir.listFiles((dir, name) -> name.endsWith(".json"));
+        if (files == null || files.length == 0) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            try {
+                S3EventNotification notification = S3EventNotification.parseJson(Files.readString(file.toPath(), StandardCharsets.UTF_8));
+                for (S3EventNotification.S3EventNotificationRecord record : notification.getRecords()) {
+                    processRecord(record);
+                }
+            } catch (RuntimeException e) {
+                log.error("Notification " + file.getName() + " can't be processed: " + e.getMessage());
+            }
+            Files.delete(file.toPath());
+        }
+        cloudStorageClient.clearObjectCache();
+    }
+
+    private void processRecord(S3EventNotification.S3EventNotificationRecord record) {
+        if (record.getEventName() == null || !record.getEventName().startsWith("ObjectCreated")) {
+            return;
+        }
+        S3EventNotification.S3Entity s3 = record.getS3();
+        //the bucket is configured with a leading slash, events name it without one
+        if (!getBucketName(cloudStorageClient.getVerificationBucketName()).equals(getBucketName(s3.getBucket().getName()))) {
+            return;
+        }
+        S3EventNotification.S3ObjectEntity object = s3.getObject();
+        String key = object.getUrlDecodedKey();
+        String[] tokenAndFileName = cloudStorageClient.parseFileKey(key);
+        if (tokenAndFileName == null) {
+            return;
+        }
+        Long size = object.getSizeAsLong();
+        if (size != null && object.geteTag() != null) {
+            validate(new ObjectVersion(cloudStorageClient.getVerificationBucketName(), key, object.geteTag(), size));
+        } else {
+            //the version is resolved by a HEAD request then
+            validate(tokenAndFileName);
+        }
+        String cursor = cursors.get(tokenAndFileName[0]);
+        if (object.geteTag() != null && (cursor == null || key.compareTo(cursor) > 0)) {
+            notified.put(key, object.geteTag());
+        }
+    }
+
+    private static String getBucketName(String name) {
+        String result = name == null ? "" : name.trim();
+        while (result.startsWith("/")) {
+            result = result.substring(1);
+        }
+        return result;
+    }
+
+    private void validate(ObjectVersion version) {
+        String[] tokenAndFileName = cloudStorageClient.parseFileKey(version.getKey());
+        if (tokenAndFileName == null) {
+            return;
+        }
+        cloudStorageClient.addExistingFile(version);
+        validate(tokenAndFileName);
+    }
+
+    private void validate(String[] tokenAndFileName) {
+        TokenValidationResult result = tokenValidationService.validate(tokenAndFileName[0], tokenAndFileName[1]);
+        log.info("Validation result = " + result);
+    }
+}
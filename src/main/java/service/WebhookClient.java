@@ -3,40 +3,261 @@ package service;
 import com.github.seratch.jslack.Slack;
 import com.github.seratch.jslack.api.webhook.Payload;
 import com.github.seratch.jslack.api.webhook.WebhookResponse;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.apachecommons.CommonsLog;
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+import utilities.TokenBucket;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Sends messages to Slack from a background virtual thread. Messages are put into a bounded queue, coalesced into one digest
+ * per time window or per max_digest_messages and sent under a token bucket rate limit with retries.
+ * Success messages are only counted and sent as one summary per success_summary_ms when no other messages are waiting,
+ * so thousands of valid files neither fill the queue nor use up the rate limit of the failures.
+ * close() flushes the queue.
+ */
 @CommonsLog
-@RequiredArgsConstructor
-public class WebhookClient { ;
-
-    private String urlSlackWebHook;
+public class WebhookClient implements AutoCloseable {
 
+    private final String urlSlackWebHook;
+    private final BlockingQueue<String> queue;
+    private final long digestWindowMillis;
+    private final int maxDigestMessages;
+    private final int maxRetries;
+    private final long retryBackoffMillis;
+    private final long flushTimeoutMillis;
+    private final long successSummaryMillis;
+    private final TokenBucket rateLimiter;
+    private final Slack slack;
+    private final Thread sender;
+    private final AtomicLong accepted = new AtomicLong();
+    //success messages not summarized yet, the last one is sent as is when it's the only one
+    private final Object successLock = new Object();
+    private long successes;
+    private String lastSuccess;
+    private volatile boolean flushRequested;
+    private final Counter sent;
+    private final Counter dropped;
+    private final Counter failed;
+    private final Counter retries;
+    private final Histogram sendLatency;
+    private final MetricsRegistry metricsRegistry;
+    private volatile boolean closed;
 
     public WebhookClient(Properties appProps) {
+        this(appProps, new MetricsRegistry());
+    }
+
+    public WebhookClient(Properties appProps, MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+        this.sent = metricsRegistry.counter("candle_validation_slack_messages_total", "Slack messages by result", "result", "sent");
+        this.dropped = metricsRegistry.counter("candle_validation_slack_messages_total", "Slack messages by result", "result", "dropped");
+        this.failed = metricsRegistry.counter("candle_validation_slack_messages_total", "Slack messages by result", "result", "failed");
+        this.retries = metricsRegistry.counter("candle_validation_slack_retries_total", "Retried Slack posts");
+        this.sendLatency = metricsRegistry.histogram("candle_validation_slack_post_seconds", "Slack webhook post latency");
         this.urlSlackWebHook = appProps.getProperty("candle-validation.slack.webhook");
+        this.queue = new ArrayBlockingQueue<>(getIntProperty(appProps, "candle-validation.slack.queue_capacity", 10000));
+        this.digestWindowMillis = getIntProperty(appProps, "candle-validation.slack.digest_window_ms", 2000);
+        this.maxDigestMessages = Math.max(1, getIntProperty(appProps, "candle-validation.slack.max_digest_messages", 20));
+        this.maxRetries = getIntProperty(appProps, "candle-validation.slack.max_retries", 3);
+        this.retryBackoffMillis = getIntProperty(appProps, "candle-validation.slack.retry_backoff_ms", 1000);
+        this.flushTimeoutMillis = getIntProperty(appProps, "candle-validation.slack.flush_timeout_ms", 60000);
+        this.successSummaryMillis = getIntProperty(appProps, "candle-validation.slack.success_summary_ms", 60000);
+        //Slack allows about one webhook message per second
+        this.rateLimiter = new TokenBucket(getIntProperty(appProps, "candle-validation.slack.burst", 3),
+                Double.parseDouble(appProps.getProperty("candle-validation.slack.messages_per_second", "1").trim()));
+        this.slack = Slack.getInstance();
+        //blocked on the queue or the webhook most of the time, a virtual thread holds no platform thread meanwhile
+        this.sender = TaskExecutors.startVirtualThread("slack-sender", this::run);
+    }
+
+    private static int getIntProperty(Properties appProps, String name, int defaultValue) {
+        String prop = appProps.getProperty(name);
+        if (prop == null || prop.isBlank()) {
+            return defaultValue;
+        }
+        return Integer.parseInt(prop.trim());
+    }
+
+    /**
+     * Queues the message without blocking, the message is dropped when the queue is full.
+     */
+    public void sendMessageToSlack(String message) {
+        if (closed || !queue.offer(message)) {
+            dropped.inc();
+            log.error("Message dropped, queue depth = " + queue.size() + ": \"" + message + "\"");
+        } else {
+            accepted.incrementAndGet();
+        }
+    }
+
+    /**
+     * Counts a success message, it's sent in the next success summary.
+     */
+    public void sendSuccessToSlack(String message) {
+        if (closed) {
+            dropped.inc();
+            return;
+        }
+        synchronized (successLock) {
+            successes++;
+            lastSuccess = message;
+        }
+        accepted.incrementAndGet();
+    }
+
+    /**
+     * Waits until the messages queued so far are sent or failed, up to flush_timeout_ms. The client stays open.
+     */
+    public void flush() throws InterruptedException {
+        long target = accepted.get();
+        long deadline = System.currentTimeMillis() + flushTimeoutMillis;
+        flushRequested = true;
+        try {
+            while (sent.get() + failed.get() < target && sender.isAlive() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+        } finally {
+            flushRequested = false;
+        }
+        log.info("Slack messages flushed, sent = " + sent.get() + ", failed = " + failed.get() + ", queue depth = " + queue.size());
     }
 
-    public void sendMessageToSlack(String message) throws Exception {
-        process(message);
+    public int getQueueDepth() {
+        return queue.size();
     }
 
-    private void process(String message) throws Exception {
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    private void run() {
+        List<String> digest = new ArrayList<>();
+        long nextSummary = System.currentTimeMillis() + successSummaryMillis;
+        while (!closed || !queue.isEmpty() || hasSuccesses()) {
+            try {
+                String first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    //the queue is empty, so failures are never held back by the summary
+                    if (closed || flushRequested || System.currentTimeMillis() >= nextSummary) {
+                        sendSuccessSummary();
+                        nextSummary = System.currentTimeMillis() + successSummaryMillis;
+                    }
+                    continue;
+                }
+                digest.add(first);
+                long deadline = System.currentTimeMillis() + digestWindowMillis;
+                while (digest.size() < maxDigestMessages) {
+                    long wait = closed ? 0 : deadline - System.currentTimeMillis();
+                    String next = wait > 0 ? queue.poll(wait, TimeUnit.MILLISECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    digest.add(next);
+                }
+                rateLimiter.acquire();
+                process(String.join("\n", digest), digest.size());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                failed.add(digest.size());
+                log.error("Unexpected Error! WebHook:" + urlSlackWebHook + " " + e.getMessage());
+            } finally {
+                digest.clear();
+            }
+        }
+    }
+
+    private boolean hasSuccesses() {
+        synchronized (successLock) {
+            return successes > 0;
+        }
+    }
+
+    private void sendSuccessSummary() throws InterruptedException {
+        long count;
+        String message;
+        synchronized (successLock) {
+            count = successes;
+            message = count == 1 ? lastSuccess : count + " files checked successfully";
+            successes = 0;
+            lastSuccess = null;
+        }
+        if (count > 0) {
+            rateLimiter.acquire();
+            process(message, count);
+        }
+    }
+
+    private void process(String message, long count) throws InterruptedException {
         Payload payload = Payload.builder()
                 .text(message)
                 .build();
-        try {
-            Slack slack = Slack.getInstance();
-            WebhookResponse webhookResponse = slack.send(urlSlackWebHook, payload);
-            log.info("Message: \"" + message + "\" Sent to slack." + " Response is : " + webhookResponse.getBody());
-            slack.close();
-        } catch (IOException e) {
-            log.error("Unexpected Error! WebHook:" + urlSlackWebHook);
+        for (int attempt = 0; attempt <= maxRetries; attempt++) {
+            if (attempt > 0) {
+                retries.inc();
+                Thread.sleep(retryBackoffMillis << (attempt - 1));
+            }
+            long start = System.nanoTime();
+            try {
+                WebhookResponse webhookResponse;
+                try {
+                    webhookResponse = slack.send(urlSlackWebHook, payload);
+                } finally {
+                    sendLatency.observeSince(start);
+                }
+                Integer code = webhookResponse.getCode();
+                if (code != null && (code == 429 || code >= 500)) {
+                    log.info("Slack responded " + code + ", attempt " + (attempt + 1));
+                    continue;
+                }
+                sent.add(count);
+                log.info("Message: \"" + message + "\" Sent to slack." + " Response is : " + webhookResponse.getBody()
+                        + ". Queue depth = " + queue.size());
+                return;
+            } catch (IOException | RuntimeException e) {
+                //every attempt fails the same way, so the count of a digest or a success summary is never lost
+                log.error("Unexpected Error! WebHook:" + urlSlackWebHook + ", attempt " + (attempt + 1) + ": " + e.getMessage());
+            }
         }
+        failed.add(count);
     }
 
-}
+    /**
+     * Stops accepting messages and waits until the queued ones are sent.
+     */
+    @Override
+    public synchronized void close() throws Exception {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        sender.join(flushTimeoutMillis);
+        if (sender.isAlive()) {
+            sender.interrupt();
+        }
+        slack.close();
+        metricsRegistry.gauge("candle_validation_slack_queue_depth", "Slack messages left in the queue after the flush").set(queue.size());
+        log.info("Slack messages sent = " + sent.get() + ", failed = " + failed.get() + ", dropped = " + dropped.get()
+                + ", left in queue = " + queue.size());
+    }
 
+}
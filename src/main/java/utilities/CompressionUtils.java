@@ -0,0 +1,49 @@
+package utilities;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+public class CompressionUtils {
+
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int GZIP_MAGIC_FIRST = 0x1f;
+    private static final int GZIP_MAGIC_SECOND = 0x8b;
+
+    private CompressionUtils() {
+    }
+
+    /**
+     * Buffers the stream and adds a decompressing stage.
+     * compression: none, gzip or auto (gzip is detected by its magic bytes)
+     */
+    public static InputStream wrap(InputStream inputStream, String compression) throws IOException {
+        BufferedInputStream buffered = inputStream instanceof BufferedInputStream
+                ? (BufferedInputStream) inputStream
+                : new BufferedInputStream(inputStream, BUFFER_SIZE);
+        if (isCompressed(buffered, compression)) {
+            return new BufferedInputStream(new GZIPInputStream(buffered, BUFFER_SIZE), BUFFER_SIZE);
+        }
+        return buffered;
+    }
+
+    /**
+     * Checks the compression without consuming the stream.
+     */
+    public static boolean isCompressed(BufferedInputStream inputStream, String compression) throws IOException {
+        if (compression == null || compression.isBlank() || compression.trim().equalsIgnoreCase("none")) {
+            return false;
+        }
+        return compression.trim().equalsIgnoreCase("gzip") || isGzip(inputStream);
+    }
+
+    private static boolean isGzip(BufferedInputStream inputStream) throws IOException {
+        inputStream.mark(2);
+        int first = inputStream.read();
+        int second = inputStream.read();
+        inputStream.reset();
+        return first == GZIP_MAGIC_FIRST && second == GZIP_MAGIC_SECOND;
+    }
+}
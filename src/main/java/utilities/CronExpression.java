@@ -0,0 +1,130 @@
+package utilities;
+
+import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.BitSet;
+
+/**
+ * Cron expression of five fields: minute, hour, day of month, month and day of week.
+ * Fields accept *, numbers, ranges (1-5), lists (1,3,5) and steps (*&#47;15, 0-30/10), months and days of week also accept
+ * names (JAN, MON). Day of week is 0-7, both 0 and 7 are Sunday. As in cron, when both day fields are restricted
+ * a day matching either of them matches.
+ */
+public class CronExpression {
+
+    private static final String[] MONTHS = {"JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"};
+    private static final String[] DAYS = {"SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT"};
+    //no match within this many years means the expression can't match at all, e.g. 30 2 * (February 30th)
+    private static final int MAX_YEARS = 5;
+
+    private final String expression;
+    private final BitSet minutes;
+    private final BitSet hours;
+    private final BitSet daysOfMonth;
+    private final BitSet months;
+    private final BitSet daysOfWeek;
+    private final boolean anyDayOfMonth;
+    private final boolean anyDayOfWeek;
+
+    public CronExpression(String expression) {
+        this.expression = expression.trim();
+        String[] fields = this.expression.split("\\s+");
+        if (fields.length != 5) {
+            throw new IllegalArgumentException("Cron expression \"" + expression + "\" has to have 5 fields");
+        }
+        this.minutes = parseField(fields[0], 0, 59, null);
+        this.hours = parseField(fields[1], 0, 23, null);
+        this.daysOfMonth = parseField(fields[2], 1, 31, null);
+        this.months = parseField(fields[3], 1, 12, MONTHS);
+        this.daysOfWeek = parseField(fields[4], 0, 7, DAYS);
+        if (daysOfWeek.get(7)) {
+            daysOfWeek.set(0);
+        }
+        this.anyDayOfMonth = fields[2].startsWith("*");
+        this.anyDayOfWeek = fields[4].startsWith("*");
+    }
+
+    private BitSet parseField(String field, int min, int max, String[] names) {
+        BitSet result = new BitSet(max + 1);
+        for (String part : field.split(",")) {
+            int step = 1;
+            int slash = part.indexOf('/');
+            if (slash >= 0) {
+                step = Integer.parseInt(part.substring(slash + 1));
+                part = part.substring(0, slash);
+                if (step <= 0) {
+                    throw new IllegalArgumentException("Wrong step in cron expression \"" + expression + "\"");
+                }
+            }
+            int from;
+            int to;
+            if (part.equals("*")) {
+                from = min;
+                to = max;
+            } else {
+                int dash = part.indexOf('-');
+                from = parseValue(dash >= 0 ? part.substring(0, dash) : part, min, names);
+                to = dash >= 0 ? parseValue(part.substring(dash + 1), min, names) : (slash >= 0 ? max : from);
+            }
+            if (from < min || to > max || from > to) {
+                throw new IllegalArgumentException("Value out of range " + min + "-" + max + " in cron expression \"" + expression + "\"");
+            }
+            for (int i = from; i <= to; i += step) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    private static int parseValue(String value, int min, String[] names) {
+        if (names != null) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equalsIgnoreCase(value)) {
+                    return i + min;
+                }
+            }
+        }
+        return Integer.parseInt(value);
+    }
+
+    /**
+     * @return the first matching minute strictly after the given time. Fields are matched on local time, so a day
+     * with a DST change fires once: a time in the gap fires right after the gap, a time in the overlap fires at its
+     * first occurrence only.
+     */
+    public ZonedDateTime next(ZonedDateTime after) {
+        LocalDateTime time = after.toLocalDateTime().truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+        LocalDateTime limit = time.plusYears(MAX_YEARS);
+        while (time.isBefore(limit)) {
+            if (!months.get(time.getMonthValue())) {
+                time = time.withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS).plusMonths(1);
+            } else if (!matchesDay(time)) {
+                time = time.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+            } else if (!hours.get(time.getHour())) {
+                time = time.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+            } else if (!minutes.get(time.getMinute())) {
+                time = time.plusMinutes(1);
+            } else {
+                //the offset of the given time is kept in an overlap, so the repeated hour isn't matched again
+                return ZonedDateTime.ofLocal(time, after.getZone(), after.getOffset());
+            }
+        }
+        throw new IllegalStateException("Cron expression \"" + expression + "\" never matches");
+    }
+
+    private boolean matchesDay(LocalDateTime time) {
+        boolean dayOfMonth = daysOfMonth.get(time.getDayOfMonth());
+        //DayOfWeek is 1 (Monday) - 7 (Sunday), cron is 0 (Sunday) - 6
+        boolean dayOfWeek = daysOfWeek.get(time.getDayOfWeek().getValue() % 7);
+        if (anyDayOfMonth || anyDayOfWeek) {
+            return dayOfMonth && dayOfWeek;
+        }
+        return dayOfMonth || dayOfWeek;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
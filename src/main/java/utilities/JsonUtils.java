@@ -0,0 +1,30 @@
+package utilities;
+
+public class JsonUtils {
+
+    private JsonUtils() {
+    }
+
+    public static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder builder = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    //JSON has no NaN and infinities
+    public static String number(double value) {
+        return Double.isFinite(value) ? String.valueOf(value) : "null";
+    }
+}
@@ -0,0 +1,52 @@
+package utilities;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the time spent in reads of the wrapped stream, e.g. waiting for the network while an S3 object is parsed
+ * as it arrives, so that time can be told apart from the time of parsing.
+ */
+public class TimedInputStream extends FilterInputStream {
+
+    private long readNanos;
+
+    public TimedInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        try {
+            return super.read();
+        } finally {
+            readNanos += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return super.read(b, off, len);
+        } finally {
+            readNanos += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return super.skip(n);
+        } finally {
+            readNanos += System.nanoTime() - start;
+        }
+    }
+
+    public long getReadNanos() {
+        return readNanos;
+    }
+}
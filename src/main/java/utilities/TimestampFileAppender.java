@@ -20,6 +20,7 @@ public class TimestampFileAppender extends RollingFileAppender {
     @Setter
     private String timeZone = null;
     private String fileName = null;
+    private String filePattern = null;
 
 
     public String getFileName() {
@@ -33,6 +34,7 @@ public class TimestampFileAppender extends RollingFileAppender {
     }
 
     public void setFile(String file) {
+        this.filePattern = file;
         if (timestampPattern != null && timeZone != null) {
             super.setFile(createFileName(file));
         } else {
@@ -47,4 +49,13 @@ public class TimestampFileAppender extends RollingFileAppender {
             super.setFile(fileName, append, bufferedIO, bufferSize);
         }
     }
+
+    /**
+     * Closes the current file and opens a new one with the current timestamp.
+     */
+    public void startNewFile() throws IOException {
+        if (filePattern != null) {
+            setFile(filePattern, getAppend(), getBufferedIO(), getBufferSize());
+        }
+    }
 }
@@ -0,0 +1,50 @@
+package utilities;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Token bucket rate limiter: up to capacity permits at once, refilled at permitsPerSecond.
+ * A lock instead of synchronized, so a virtual thread waiting for a permit doesn't pin its carrier thread.
+ */
+public class TokenBucket {
+
+    private final double capacity;
+    private final double permitsPerNano;
+    private double tokens;
+    private long lastRefill;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition refilled = lock.newCondition();
+
+    public TokenBucket(double capacity, double permitsPerSecond) {
+        this.capacity = Math.max(1, capacity);
+        this.permitsPerNano = permitsPerSecond / 1_000_000_000d;
+        this.tokens = this.capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Blocks until a permit is available.
+     */
+    public void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            refill();
+            while (tokens < 1) {
+                long waitNanos = (long) Math.ceil((1 - tokens) / permitsPerNano);
+                refilled.await(Math.max(TimeUnit.MILLISECONDS.toNanos(1), waitNanos), TimeUnit.NANOSECONDS);
+                refill();
+            }
+            tokens -= 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * permitsPerNano);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,140 @@
+package anomaly;
+
+import model.ValidationResult;
+import org.junit.Test;
+import parser.ByteCandleReader;
+import parser.CandleCursor;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class AnomalyScanTest {
+
+    private static final double RETURN_LIMIT = 0.02;
+    private static final double VOLUME_LIMIT = 900;
+
+    @Test
+    public void appendEqualsSinglePass() throws IOException {
+        List<CandleCursor> rows = generate(new Random(1), 300);
+        AnomalyScan single = new AnomalyScan(RETURN_LIMIT, VOLUME_LIMIT);
+        ValidationResult singleResult = new ValidationResult(10000);
+        scan(single, rows, 0, rows.size(), singleResult);
+        //every split point, also inside and at the ends of flat runs
+        for (int split = 0; split <= rows.size(); split++) {
+            assertSameScan("split " + split, single, singleResult, rows, split, split);
+        }
+        for (int split = 0; split <= rows.size(); split += 7) {
+            assertSameScan("splits " + split + ", " + (split + 13), single, singleResult, rows, split, Math.min(rows.size(), split + 13));
+        }
+    }
+
+    @Test
+    public void appendOfFlatChunksContinuesTheRun() throws IOException {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            csv.append(1000 + i * 60).append(i < 10 ? ",5,6,4,5,10\n" : ",7,7,7,7,10\n");
+        }
+        List<CandleCursor> rows = read(csv.toString());
+        AnomalyScan single = new AnomalyScan(RETURN_LIMIT, VOLUME_LIMIT);
+        ValidationResult singleResult = new ValidationResult(100);
+        scan(single, rows, 0, rows.size(), singleResult);
+        single.endRun();
+        assertEquals(20, single.getLongestRun());
+        for (int split = 0; split <= rows.size(); split += 5) {
+            assertSameScan("split " + split, single, singleResult, rows, split, Math.min(rows.size(), split + 5));
+        }
+    }
+
+    //scans rows in three chunks [0, first), [first, second), [second, end) and appends them as the mapped validation does
+    private static void assertSameScan(String message, AnomalyScan single, ValidationResult singleResult, List<CandleCursor> rows,
+                                       int first, int second) {
+        ValidationResult result = new ValidationResult(10000);
+        AnomalyScan merged = new AnomalyScan(RETURN_LIMIT, VOLUME_LIMIT);
+        scan(merged, rows, 0, first, result);
+        int[] bounds = {first, second, rows.size()};
+        for (int i = 0; i < 2; i++) {
+            AnomalyScan next = new AnomalyScan(RETURN_LIMIT, VOLUME_LIMIT);
+            ValidationResult nextResult = new ValidationResult(10000);
+            scan(next, rows, bounds[i], bounds[i + 1], nextResult);
+            merged.addBoundary(next, bounds[i], result);
+            result.append(nextResult, bounds[i]);
+            merged.append(next, bounds[i]);
+        }
+        single.endRun();
+        merged.endRun();
+        assertEquals(message, single.getRows(), merged.getRows());
+        assertEquals(message, single.getVolumeSum(), merged.getVolumeSum(), 1e-6);
+        assertEquals(message, single.getVolumeRows(), merged.getVolumeRows());
+        assertEquals(message, single.getReturnCount(), merged.getReturnCount());
+        assertEquals(message, single.getReturnSquares(), merged.getReturnSquares(), 1e-12);
+        assertEquals(message, single.getFirstClose(), merged.getFirstClose(), 0);
+        assertEquals(message, single.getFirstCloseRow(), merged.getFirstCloseRow());
+        assertEquals(message, single.getLastClose(), merged.getLastClose(), 0);
+        assertEquals(message, single.getLongestRun(), merged.getLongestRun());
+        assertEquals(message, single.getLongestStart(), merged.getLongestStart());
+        assertEquals(message, single.getLongestPrice(), merged.getLongestPrice(), 0);
+        assertEquals(message, single.getLeadRun(), merged.getLeadRun());
+        assertEquals(message, single.getLeadPrice(), merged.getLeadPrice(), 0);
+        assertEquals(message, single.getReturns().getCount(), merged.getReturns().getCount(), 1e-9);
+        assertEquals(message, single.getReturns().quantile(0.99), merged.getReturns().quantile(0.99), 0);
+        assertEquals(message, single.getVolumes().quantile(0.5), merged.getVolumes().quantile(0.5), 0);
+        assertEquals(message, singleResult.getRuleViolationCounts(), result.getRuleViolationCounts());
+        assertEquals(message, singleResult.getViolations().toString(), sortByRow(result).toString());
+    }
+
+    //a boundary return is added to the result before the rows of its chunk, a single pass adds it in row order
+    private static List<String> sortByRow(ValidationResult result) {
+        List<String> violations = new ArrayList<>();
+        result.getViolations().stream()
+                .sorted((a, b) -> Long.compare(a.getRow(), b.getRow()))
+                .forEach(violation -> violations.add(violation.toString()));
+        return violations;
+    }
+
+    private static void scan(AnomalyScan scan, List<CandleCursor> rows, int from, int to, ValidationResult result) {
+        for (int i = from; i < to; i++) {
+            scan.add(rows.get(i), i - from, result);
+        }
+    }
+
+    //random walk with flat runs, missing closes and volume spikes
+    private static List<CandleCursor> generate(Random random, int count) throws IOException {
+        StringBuilder csv = new StringBuilder();
+        double close = 100;
+        for (int i = 0; i < count; i++) {
+            csv.append(1000 + i * 60L).append(',');
+            int kind = random.nextInt(20);
+            if (kind == 0) {
+                csv.append(close).append(",,,,10\n");
+                continue;
+            }
+            if (kind < 6) {
+                //flat candles at the last close, often several in a row
+                csv.append(close).append(',').append(close).append(',').append(close).append(',').append(close);
+            } else {
+                double open = close;
+                close = Math.max(1, close * (1 + (random.nextDouble() - 0.5) * (kind == 6 ? 0.1 : 0.01)));
+                csv.append(open).append(',').append(Math.max(open, close)).append(',').append(Math.min(open, close)).append(',').append(close);
+            }
+            csv.append(',').append(kind == 7 ? 1000 + random.nextInt(1000) : random.nextInt(500)).append('\n');
+        }
+        return read(csv.toString());
+    }
+
+    private static List<CandleCursor> read(String csv) throws IOException {
+        List<CandleCursor> rows = new ArrayList<>();
+        try (ByteCandleReader reader = new ByteCandleReader(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)))) {
+            CandleCursor cursor = new CandleCursor();
+            while (reader.next(cursor)) {
+                rows.add(cursor.copy());
+            }
+        }
+        return rows;
+    }
+}
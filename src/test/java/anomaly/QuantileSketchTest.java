@@ -0,0 +1,64 @@
+package anomaly;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class QuantileSketchTest {
+
+    private static final double[] QUANTILES = {0, 0.1, 0.5, 0.9, 0.99, 0.999, 1};
+
+    @Test
+    public void mergeEqualsSinglePass() {
+        Random random = new Random(1);
+        double[] values = new double[10000];
+        for (int i = 0; i < values.length; i++) {
+            //every tenth value is 0, the rest span about 230 bins
+            values[i] = i % 10 == 0 ? 0 : Math.exp(-random.nextDouble() * 9);
+        }
+        for (int split : new int[]{0, 1, 5000, values.length - 1, values.length}) {
+            assertSameQuantiles(values, split, QUANTILES);
+        }
+    }
+
+    @Test
+    public void mergeKeepsHighQuantilesOfFoldedSketches() {
+        Random random = new Random(2);
+        double[] values = new double[10000];
+        for (int i = 0; i < values.length; i++) {
+            //far more than MAX_BINS bins, the lowest ones are folded
+            values[i] = Math.exp((random.nextDouble() - 0.5) * 40);
+        }
+        for (int split : new int[]{1, 3000, 9999}) {
+            assertSameQuantiles(values, split, new double[]{0.9, 0.99, 0.999, 1});
+        }
+    }
+
+    @Test
+    public void quantileIsWithinRelativeAccuracy() {
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = 1; i <= 1000; i++) {
+            sketch.add(i);
+        }
+        assertEquals(1000, sketch.getCount(), 0);
+        assertEquals(500, sketch.quantile(0.5), 500 * QuantileSketch.RELATIVE_ACCURACY);
+        assertEquals(990, sketch.quantile(0.99), 990 * QuantileSketch.RELATIVE_ACCURACY);
+    }
+
+    private static void assertSameQuantiles(double[] values, int split, double[] quantiles) {
+        QuantileSketch single = new QuantileSketch();
+        QuantileSketch first = new QuantileSketch();
+        QuantileSketch second = new QuantileSketch();
+        for (int i = 0; i < values.length; i++) {
+            single.add(values[i]);
+            (i < split ? first : second).add(values[i]);
+        }
+        first.merge(second);
+        assertEquals(single.getCount(), first.getCount(), 1e-9);
+        for (double q : quantiles) {
+            assertEquals("split " + split + ", q " + q, single.quantile(q), first.quantile(q), 0);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package parser;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ByteCandleReaderTest {
+
+    @Test
+    public void plainRows() throws IOException {
+        assertSameRows("1000,1.5,2,1,1.25,300\n1060,1.25,2.5,1.1,2,0\n");
+    }
+
+    @Test
+    public void lineTerminators() throws IOException {
+        assertSameRows("1000,1,2,1,2,10\r\n1060,2,3,2,3,20\r\n");
+        assertSameRows("1000,1,2,1,2,10\r1060,2,3,2,3,20\r");
+        assertSameRows("1000,1,2,1,2,10\r\n\r\n1060,2,3,2,3,20\n\n1120,3,4,3,4,30");
+    }
+
+    @Test
+    public void terminatorOnChunkBoundary() throws IOException {
+        String csv = "1000,1,2,1,2,10\r\n1060,2,3,2,3,20\r\n1120,3,4,3,4,30\r\n";
+        //every chunk size splits the file at another byte, also between \r and \n
+        for (int chunkSize = 1; chunkSize <= csv.length(); chunkSize++) {
+            assertEquals(readOpenCsv(csv), readBytes(csv, chunkSize));
+        }
+    }
+
+    @Test
+    public void quotedFields() throws IOException {
+        assertSameRows("\"1000\",\"1.5\",2,1,1.25,300\n1060,1.25,2.5,1.1,2,0\n");
+        assertSameRows("1000,\"1,5\",2,1,1.25,300\n");
+        assertSameRows("1000,\"1.5\"\"\",2,1,1.25,300\n");
+        assertSameRows("1000,1.5,\"2\n3\",1,1.25,300\r\n1060,1.25,2.5,1.1,2,0\r\n");
+        assertSameRows("1000,1\\.5,2,1,1.25,300\n");
+    }
+
+    @Test
+    public void malformedValues() throws IOException {
+        assertSameRows("abc,1,2,1,2,10\n,1,2,1,2,10\n 1000 ,1,2,1,2,10\n");
+        assertSameRows("99999999999999999999,1,2,1,2,10\n-9223372036854775808,1,2,1,2,10\n+1000,1,2,1,2,10\n");
+        assertSameRows("1000,x,1e3,.5,5.,-0\n1060,,,,,\n1120\n1180,1,2,1,2,10,extra\n");
+        assertSameRows("1000,0.1234567890123456789012345,12345678901234567890,1,2,10\n");
+    }
+
+    @Test
+    public void unterminatedQuote() {
+        String csv = "1000,1,2,1,2,10\n1060,\"2,3,2,3,20\n";
+        assertThrows(() -> readOpenCsv(csv));
+        assertThrows(() -> readBytes(csv, ByteCandleReader.DEFAULT_CHUNK_SIZE));
+    }
+
+    @Test
+    public void mappedBuffer() throws IOException {
+        String csv = "1000,1,2,1,2,10\r\n1060,\"2\",3,2,3,20\n1120,3,4,3,4,30";
+        List<String> rows = new ArrayList<>();
+        read(new ByteCandleReader(ByteBuffer.wrap(csv.getBytes(StandardCharsets.UTF_8))), rows);
+        assertEquals(readOpenCsv(csv), rows);
+    }
+
+    private static void assertSameRows(String csv) throws IOException {
+        List<String> expected = readOpenCsv(csv);
+        assertTrue(expected.size() > 0);
+        assertEquals(expected, readBytes(csv, ByteCandleReader.DEFAULT_CHUNK_SIZE));
+        assertEquals(expected, readBytes(csv, 7));
+    }
+
+    private static List<String> readOpenCsv(String csv) throws IOException {
+        List<String> rows = new ArrayList<>();
+        read(new OpenCsvCandleReader(new StringReader(csv)), rows);
+        return rows;
+    }
+
+    private static List<String> readBytes(String csv, int chunkSize) throws IOException {
+        List<String> rows = new ArrayList<>();
+        read(new ByteCandleReader(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), chunkSize), rows);
+        return rows;
+    }
+
+    private static void read(CandleReader reader, List<String> rows) throws IOException {
+        CandleCursor cursor = new CandleCursor();
+        try (reader) {
+            while (reader.next(cursor)) {
+                rows.add(describe(cursor));
+            }
+        }
+    }
+
+    //everything the checks see of a row
+    private static String describe(CandleCursor cursor) {
+        String timestamp = cursor.isTimestampBlank() ? "blank"
+                : cursor.getTimestampError() != null ? "error " + cursor.getTimestampError().getMessage()
+                : String.valueOf(cursor.getTimestamp());
+        return cursor.getRowNumber() + ": " + cursor.getFieldCount() + " fields, " + timestamp + ", " + cursor.getOpen() + ", "
+                + cursor.getHigh() + ", " + cursor.getLow() + ", " + cursor.getClose() + ", " + cursor.getVolume();
+    }
+
+    private static void assertThrows(IoCall call) {
+        try {
+            call.run();
+            fail("The unterminated quote is not reported");
+        } catch (IOException e) {
+            assertNotNull(e.getMessage());
+        }
+    }
+
+    private interface IoCall {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,113 @@
+package service;
+
+import metrics.MetricsRegistry;
+import model.TokenValidationResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import rules.CandleRuleFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
+public class BatchValidationServiceTest {
+
+    private static final String BUCKET = "historical-data";
+    private static final String BASE_FOLDER = "32/1-backup/";
+    private static final long MINUTE = 60000L;
+    private static final int ROWS = 5;
+    //Monday to Wednesday
+    private static final List<LocalDate> DAYS = Arrays.asList(LocalDate.of(2020, 1, 6), LocalDate.of(2020, 1, 7), LocalDate.of(2020, 1, 8));
+
+    private Path dir;
+    private S3Stub s3;
+    private Properties appProps;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("range");
+        s3 = new S3Stub(BUCKET, 100);
+        appProps = new Properties();
+        appProps.setProperty("aws.s3.loaded.bucket.name", BUCKET);
+        appProps.setProperty("aws.s3.loaded.folder.name", BASE_FOLDER + "2835/");
+        appProps.setProperty("aws.s3.report.bucket.name", "");
+        appProps.setProperty("candle-validation.slack.missing_file_message", "The file is missing");
+        appProps.setProperty("candle-validation.slack.rule_violation_message", "File %s for token %s breaks rule %s");
+        appProps.setProperty("candle-validation.weekEnd", "sat, sun");
+        appProps.setProperty("candle-validation.count_number_to_validate", String.valueOf(ROWS));
+        appProps.setProperty("candle-validation.continuity.enabled", "true");
+        appProps.setProperty("candle-validation.continuity.state_file", dir.resolve("token-state.bin").toString());
+        appProps.setProperty("candle-validation.batch.token_manifest", dir.resolve("tokens.txt").toString());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void gapBetweenDaysIsReported() throws Exception {
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            String token = String.valueOf(2835 + i);
+            tokens.add(token);
+            put(token, DAYS.get(0), 0);
+            put(token, DAYS.get(1), 0);
+            //the first candle of the last day is missing
+            put(token, DAYS.get(2), MINUTE);
+        }
+        Files.write(dir.resolve("tokens.txt"), tokens, StandardCharsets.UTF_8);
+
+        //given in reverse order, the days of a token are still validated one after another from the first one
+        List<TokenValidationResult> failures = validateRange(DAYS.get(2), DAYS.get(1), DAYS.get(0));
+        assertEquals(tokens.size(), failures.size());
+        for (TokenValidationResult result : failures) {
+            assertEquals(TimeService.getFileName(DAYS.get(2)), result.getFileName());
+            Map<String, Long> failedChecks = result.getValidationResult().getFailedChecks();
+            assertEquals(failedChecks.toString(), Long.valueOf(2), failedChecks.get("continuity"));
+        }
+    }
+
+    private List<TokenValidationResult> validateRange(LocalDate... days) throws Exception {
+        TimeService timeService = new TimeService(appProps);
+        MetricsRegistry metricsRegistry = new MetricsRegistry();
+        try (TaskExecutors taskExecutors = new TaskExecutors(appProps);
+             WebhookClient webhookClient = new WebhookClient(appProps, metricsRegistry);
+             TokenStateStore tokenStateStore = new TokenStateStore(appProps, timeService);
+             BaselineStore baselineStore = new BaselineStore(appProps);
+             ReportBundleWriter reportBundleWriter = new ReportBundleWriter(appProps, null, metricsRegistry)) {
+            CloudStorageClient cloudStorageClient = new CloudStorageClient(appProps, ".csv", s3, taskExecutors, metricsRegistry);
+            TokenValidationService tokenValidationService = new TokenValidationService(appProps, cloudStorageClient, webhookClient,
+                    new CandleRuleFactory(appProps, timeService), new ValidationIndex(appProps, false), tokenStateStore, baselineStore,
+                    reportBundleWriter, taskExecutors, metricsRegistry, TimeService.getFileName(DAYS.get(0)), ".csv");
+            BatchValidationService batchValidationService = new BatchValidationService(appProps, cloudStorageClient, tokenValidationService, taskExecutors);
+            return batchValidationService.validateRange(Arrays.asList(days));
+        }
+    }
+
+    //a candle a minute from 09:15 in India, shifted by the given offset
+    private void put(String token, LocalDate day, long offset) {
+        long start = day.atStartOfDay().toEpochSecond(ZoneOffset.UTC) * 1000 + (3 * 60 + 45) * MINUTE + offset;
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < ROWS; i++) {
+            csv.append(start + i * MINUTE).append(",100,101,99,100,10\n");
+        }
+        s3.put(BASE_FOLDER + token + "/" + TimeService.getFileName(day) + ".csv", csv.toString());
+    }
+}
@@ -0,0 +1,183 @@
+package service;
+
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import exceptions.ValidationException;
+import metrics.MetricsRegistry;
+import model.ObjectVersion;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CloudStorageClientTest {
+
+    private static final String BUCKET = "historical-data";
+    private static final String BASE_FOLDER = "32/1-backup/";
+    private static final List<String> DAYS = Arrays.asList("1577923200000", "1578009600000", "1578268800000");
+
+    private S3Stub s3;
+    private TaskExecutors taskExecutors;
+    private CloudStorageClient cloudStorageClient;
+
+    @Before
+    public void setUp() {
+        s3 = new S3Stub(BUCKET, 2);
+        Properties appProps = new Properties();
+        appProps.setProperty("aws.s3.loaded.bucket.name", BUCKET);
+        appProps.setProperty("aws.s3.loaded.folder.name", BASE_FOLDER + "2835/");
+        appProps.setProperty("candle-validation.slack.missing_file_message", "The file is missing");
+        appProps.setProperty("aws.client.ranged_get.threshold_mb", "1");
+        appProps.setProperty("aws.client.ranged_get.part_size_mb", "1");
+        appProps.setProperty("aws.client.ranged_get.hedge_after_ms", "1");
+        taskExecutors = new TaskExecutors(appProps);
+        cloudStorageClient = new CloudStorageClient(appProps, ".csv", s3, taskExecutors, new MetricsRegistry());
+    }
+
+    @After
+    public void tearDown() {
+        taskExecutors.close();
+    }
+
+    @Test
+    public void rangeIsResolvedWithOneListingPerFolder() throws Exception {
+        //older and newer files around the range, so the folders take several pages
+        for (String token : Arrays.asList("2835", "2836")) {
+            for (int i = 0; i < 6; i++) {
+                s3.put(BASE_FOLDER + token + "/157" + i + "000000000.csv", "old");
+                s3.put(BASE_FOLDER + token + "/159" + i + "000000000.csv", "new");
+            }
+        }
+        for (String day : DAYS) {
+            s3.put(BASE_FOLDER + "2835/" + day + ".csv", "day " + day);
+        }
+        s3.put(BASE_FOLDER + "2836/" + DAYS.get(1) + ".csv", "day");
+
+        Set<String> tokens = cloudStorageClient.resolveExistingFiles(Arrays.asList("2835", "2836", "2837"), DAYS);
+        assertEquals(2, tokens.size());
+        assertEquals(new HashSet<>(Arrays.asList(BASE_FOLDER + "2835/", BASE_FOLDER + "2836/", BASE_FOLDER + "2837/")),
+                new HashSet<>(s3.getListedPrefixes()));
+        //listings start at the first day and stop at the page with the last one: two pages for 2835, one for the others
+        assertEquals(4, s3.getRequests("list"));
+
+        int lists = s3.getRequests("list");
+        for (String day : DAYS) {
+            assertTrue(cloudStorageClient.isFileExisted("2835", day));
+            assertEquals(day.length() + 4, cloudStorageClient.getFileVersion("2835", day).getSize());
+        }
+        assertTrue(cloudStorageClient.isFileExisted("2836", DAYS.get(1)));
+        assertMissing("2836", DAYS.get(0));
+        assertMissing("2837", DAYS.get(2));
+        assertEquals(lists, s3.getRequests("list"));
+        assertEquals(0, s3.getRequests("head"));
+    }
+
+    @Test
+    public void failedHeadIsCheckedAgain() throws Exception {
+        s3.put(BASE_FOLDER + "2835/" + DAYS.get(0) + ".csv", "day");
+        s3.failNext("head", 503);
+        try {
+            cloudStorageClient.isFileExisted("2835", DAYS.get(0));
+            fail("The failed request is not reported");
+        } catch (AmazonS3Exception e) {
+            assertEquals(503, e.getStatusCode());
+        }
+        assertTrue(cloudStorageClient.isFileExisted("2835", DAYS.get(0)));
+        assertEquals(2, s3.getRequests("head"));
+        //a missing file is a definite answer and is remembered
+        assertMissing("2835", DAYS.get(1));
+        assertMissing("2835", DAYS.get(1));
+        assertEquals(3, s3.getRequests("head"));
+    }
+
+    @Test
+    public void failedListingIsCheckedOneByOne() throws Exception {
+        s3.put(BASE_FOLDER + "2835/" + DAYS.get(0) + ".csv", "day");
+        s3.failNext("list", 500);
+        assertEquals(0, cloudStorageClient.resolveExistingFiles(Collections.singletonList("2835"), DAYS).size());
+        assertTrue(cloudStorageClient.isFileExisted("2835", DAYS.get(0)));
+        assertEquals(1, s3.getRequests("head"));
+    }
+
+    @Test
+    public void largeFileIsDownloadedInRanges() throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; content.length() < 3 * 1024 * 1024 + 100; i++) {
+            content.append(i).append(",1,2,1,2,10\n");
+        }
+        s3.put(BASE_FOLDER + "2835/" + DAYS.get(0) + ".csv", content.toString());
+        assertEquals(content.toString(), download("2835", DAYS.get(0)));
+        //four ranges, hedged attempts come on top of them
+        assertTrue(s3.getRequests("get") >= 4);
+    }
+
+    @Test
+    public void fileOfUnknownSizeIsDownloadedWithOneGet() throws Exception {
+        String key = BASE_FOLDER + "2835/" + DAYS.get(0) + ".csv";
+        s3.put(key, "1,2,3\n");
+        cloudStorageClient.addExistingFile(new ObjectVersion(BUCKET, key, null, -1));
+        assertEquals("1,2,3\n", download("2835", DAYS.get(0)));
+        assertEquals(1, s3.getRequests("get"));
+        assertEquals(0, s3.getRequests("head"));
+    }
+
+    @Test
+    public void streamHoldsItsPermitUntilClosed() throws Exception {
+        Properties appProps = new Properties();
+        appProps.setProperty("aws.s3.loaded.bucket.name", BUCKET);
+        appProps.setProperty("aws.s3.loaded.folder.name", BASE_FOLDER + "2835/");
+        appProps.setProperty("candle-validation.io.max_concurrency", "1");
+        try (TaskExecutors singleIo = new TaskExecutors(appProps)) {
+            CloudStorageClient client = new CloudStorageClient(appProps, ".csv", s3, singleIo, new MetricsRegistry());
+            s3.put(BASE_FOLDER + "2835/" + DAYS.get(0) + ".csv", "day");
+            InputStream stream = client.openFileStream("2835", DAYS.get(0));
+            Thread second = TaskExecutors.startVirtualThread("second", () -> {
+                try (InputStream other = client.openFileStream("2835", DAYS.get(0))) {
+                    other.readAllBytes();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            second.join(200);
+            assertTrue("The second stream is opened while the first one is read", second.isAlive());
+            assertEquals(1, s3.getRequests("get"));
+            stream.close();
+            second.join(5000);
+            assertFalse(second.isAlive());
+            assertEquals(2, s3.getRequests("get"));
+        }
+    }
+
+    private String download(String token, String day) throws Exception {
+        try {
+            File file = cloudStorageClient.downloadFile(token, day);
+            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        } finally {
+            cloudStorageClient.deleteTempFile(token, day);
+            cloudStorageClient.deleteTempDir();
+        }
+    }
+
+    private void assertMissing(String token, String day) throws Exception {
+        try {
+            cloudStorageClient.isFileExisted(token, day);
+            fail("The file of " + token + " for " + day + " is not missing");
+        } catch (ValidationException e) {
+            assertTrue(e.getMessage().endsWith(token));
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package service;
+
+import anomaly.AnomalyDetectorFactory;
+import anomaly.TokenBaseline;
+import model.ValidationResult;
+import model.Violation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import rules.CandleRuleFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParseCsvServiceTest {
+
+    //2020-01-01 09:15 in India
+    private static final long SESSION_START = 1577850300000L;
+    private static final long MINUTE = 60000L;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("candles", ".csv");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void mappedEqualsSequential() throws IOException {
+        write(generate(new Random(1), 2000, true));
+        for (long chunkSize : new long[]{1, 50, 333, 4096, 1 << 20}) {
+            Properties appProps = getProps("ohlc,volume,interval,session", chunkSize, 1000);
+            assertSameResult(appProps, null);
+            appProps.setProperty("candle-validation.max_violations", "7");
+            assertSameResult(appProps, null);
+        }
+    }
+
+    @Test
+    public void mappedEqualsSequentialWithAnomalies() throws IOException {
+        Properties appProps = getProps("ohlc,interval", 256, 1000);
+        appProps.setProperty("candle-validation.anomaly.warm_up_days", "3");
+        appProps.setProperty("candle-validation.anomaly.stuck_rows", "5");
+        AnomalyDetectorFactory detectorFactory = new AnomalyDetectorFactory(appProps);
+        TokenBaseline baseline = new TokenBaseline();
+        for (int day = 0; day < 3; day++) {
+            write(generate(new Random(10 + day), 1000, false));
+            ParseCsvService parseCsvService = newService(appProps);
+            parseCsvService.setAnomalyDetector(detectorFactory.create(null));
+            parseCsvService.validate(file);
+            baseline.merge(parseCsvService.getAnomalyScan(), day, 20);
+        }
+        write(generate(new Random(2), 2000, true));
+        assertSameResult(appProps, detectorFactory, baseline);
+        appProps.setProperty("candle-validation.max_violations", "5");
+        assertSameResult(appProps, detectorFactory, baseline);
+    }
+
+    @Test
+    public void quotedValuesAcrossChunks() throws IOException {
+        StringBuilder csv = new StringBuilder();
+        long timestamp = SESSION_START;
+        for (int i = 0; i < 50; i++) {
+            csv.append(timestamp).append(i == 20 ? ",\"1\n\",2,1,2,10\n" : ",1,2,1,2,10\n");
+            timestamp += i == 30 ? 2 * MINUTE : MINUTE;
+        }
+        write(csv.toString());
+        assertSameResult(getProps("ohlc,interval", 40, 50), null);
+    }
+
+    @Test
+    public void spikeRuleIsCheckedInOnePass() throws IOException {
+        write(generate(new Random(3), 2000, true));
+        Properties appProps = getProps("spike,interval", 100, 1000);
+        appProps.setProperty("candle-validation.rules.spike.sigmas", "2");
+        ValidationResult mapped = assertSameResult(appProps, null);
+        assertTrue(mapped.getRuleViolationCounts().get("spike") > 0);
+    }
+
+    @Test
+    public void readsOfSlowStreamAreNotParseTime() throws IOException {
+        byte[] csv = generate(new Random(4), 100, false).getBytes(StandardCharsets.UTF_8);
+        //a stream which waits 50 ms before its content, as S3 may
+        InputStream slow = new FilterInputStream(new ByteArrayInputStream(csv)) {
+            private boolean waited;
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (!waited) {
+                    waited = true;
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                }
+                return super.read(b, off, len);
+            }
+        };
+        ValidationResult result = newService(getProps("ohlc", 1 << 20, 100)).validate(slow);
+        assertEquals(100, result.getRowCount());
+        assertTrue(result.getReadNanos() >= 50_000_000L);
+        assertTrue(result.getParseNanos() < result.getReadNanos());
+    }
+
+    private ValidationResult assertSameResult(Properties appProps, AnomalyDetectorFactory detectorFactory, TokenBaseline baseline)
+            throws IOException {
+        ParseCsvService sequential = newService(appProps);
+        sequential.setAnomalyDetector(detectorFactory.create(baseline));
+        ParseCsvService mapped = newService(appProps);
+        mapped.setAnomalyDetector(detectorFactory.create(baseline));
+        ValidationResult expected = sequential.validate(file);
+        ValidationResult actual = mapped.validateMapped(file);
+        assertSame(expected, actual);
+        assertEquals(sequential.getAnomalyScan().getLongestRun(), mapped.getAnomalyScan().getLongestRun());
+        assertEquals(sequential.getAnomalyScan().getLongestStart(), mapped.getAnomalyScan().getLongestStart());
+        assertEquals(sequential.getAnomalyScan().getReturnCount(), mapped.getAnomalyScan().getReturnCount());
+        return actual;
+    }
+
+    private ValidationResult assertSameResult(Properties appProps, AnomalyDetectorFactory detectorFactory) throws IOException {
+        ValidationResult expected = newService(appProps).validate(file);
+        ValidationResult actual = newService(appProps).validateMapped(file);
+        assertSame(expected, actual);
+        return actual;
+    }
+
+    private static void assertSame(ValidationResult expected, ValidationResult actual) {
+        assertTrue(expected.getTotalViolations() > 0);
+        assertEquals(expected.toString(), actual.toString());
+        assertEquals(expected.getFailedChecks(), actual.getFailedChecks());
+        assertEquals(toStrings(expected.getViolations()), toStrings(actual.getViolations()));
+    }
+
+    private static List<String> toStrings(List<Violation> violations) {
+        List<String> result = new ArrayList<>();
+        for (Violation violation : violations) {
+            result.add(violation.toString());
+        }
+        return result;
+    }
+
+    private ParseCsvService newService(Properties appProps) {
+        return new ParseCsvService(appProps, "candles", ".csv", "token", new CandleRuleFactory(appProps, null));
+    }
+
+    private static Properties getProps(String rules, long chunkSize, int count) {
+        Properties appProps = new Properties();
+        appProps.setProperty("candle-validation.rules", rules);
+        appProps.setProperty("candle-validation.local.chunk_size", String.valueOf(chunkSize));
+        appProps.setProperty("candle-validation.local.parallelism", "4");
+        appProps.setProperty("candle-validation.count_number_to_validate", String.valueOf(count));
+        appProps.setProperty("candle-validation.max_violations", "1000");
+        return appProps;
+    }
+
+    //a trading day of minute candles, with broken rows when broken is set
+    private static String generate(Random random, int rows, boolean broken) {
+        StringBuilder csv = new StringBuilder();
+        long timestamp = SESSION_START;
+        double close = 100;
+        for (int i = 0; i < rows; i++) {
+            String terminator = random.nextInt(5) == 0 ? "\r\n" : "\n";
+            int kind = broken ? random.nextInt(60) : -1;
+            if (kind == 0) {
+                csv.append(terminator);
+                continue;
+            }
+            if (kind == 1) {
+                csv.append("x").append(timestamp).append(",1,1,1,1,1").append(terminator);
+                continue;
+            }
+            double open = close;
+            close = kind == 2 ? close * 1.5 : Math.max(1, close + random.nextGaussian() * 0.2);
+            boolean flat = random.nextInt(40) == 0;
+            double high = flat ? close : Math.max(open, close) + random.nextDouble();
+            double low = flat ? close : Math.min(open, close) - random.nextDouble();
+            double volume = kind == 3 ? 1e9 : kind == 4 ? -1 : random.nextInt(1000);
+            if (kind == 5) {
+                high = low - 1;
+            }
+            long rowTimestamp = kind == 6 ? timestamp - 5 * MINUTE : timestamp;
+            csv.append(rowTimestamp).append(',').append(flat ? close : open).append(',').append(high).append(',').append(low)
+                    .append(',').append(close).append(',').append(volume).append(terminator);
+            timestamp += kind == 7 ? 3 * MINUTE : kind == 8 ? 0 : MINUTE;
+            //a few flat runs at one price
+            if (flat) {
+                int run = random.nextInt(8);
+                for (int j = 0; j < run && i < rows - 1; j++, i++) {
+                    csv.append(timestamp).append(',').append(close).append(',').append(close).append(',').append(close)
+                            .append(',').append(close).append(',').append(random.nextInt(10)).append(terminator);
+                    timestamp += MINUTE;
+                }
+            }
+        }
+        return csv.toString();
+    }
+
+    private void write(String csv) throws IOException {
+        Files.write(file.toPath(), csv.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,192 @@
+package service;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process S3 of one bucket for tests: objects, paginated listings, HEAD and (ranged) GET. Requests are counted,
+ * and the next requests of an operation can be made to fail with a status code.
+ */
+public class S3Stub extends AbstractAmazonS3 {
+
+    private final String bucket;
+    private final int pageSize;
+    private final NavigableMap<String, byte[]> objects = new ConcurrentSkipListMap<>();
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    private final Map<String, ConcurrentLinkedQueue<Integer>> failures = new ConcurrentHashMap<>();
+    //prefixes of all listings in the order they were requested
+    private final List<String> listedPrefixes = new ArrayList<>();
+
+    public S3Stub(String bucket, int pageSize) {
+        this.bucket = bucket;
+        this.pageSize = pageSize;
+    }
+
+    public void put(String key, String content) {
+        objects.put(key, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public int getRequests(String operation) {
+        AtomicInteger count = requests.get(operation);
+        return count == null ? 0 : count.get();
+    }
+
+    public synchronized List<String> getListedPrefixes() {
+        return new ArrayList<>(listedPrefixes);
+    }
+
+    public void failNext(String operation, int statusCode) {
+        failures.computeIfAbsent(operation, key -> new ConcurrentLinkedQueue<>()).add(statusCode);
+    }
+
+    private void count(String operation) {
+        requests.computeIfAbsent(operation, key -> new AtomicInteger()).incrementAndGet();
+        ConcurrentLinkedQueue<Integer> statusCodes = failures.get(operation);
+        Integer statusCode = statusCodes == null ? null : statusCodes.poll();
+        if (statusCode != null) {
+            throw newException(statusCode);
+        }
+    }
+
+    private static AmazonS3Exception newException(int statusCode) {
+        AmazonS3Exception exception = new AmazonS3Exception("Status " + statusCode);
+        exception.setStatusCode(statusCode);
+        return exception;
+    }
+
+    private static String getETag(byte[] content) {
+        return Integer.toHexString(Arrays.hashCode(content));
+    }
+
+    private void checkBucket(String bucketName) {
+        if (!bucket.equals(bucketName)) {
+            throw newException(404);
+        }
+    }
+
+    @Override
+    public boolean doesBucketExistV2(String bucketName) {
+        count("bucket_exists");
+        return bucket.equals(bucketName);
+    }
+
+    @Override
+    public PutObjectResult putObject(String bucketName, String key, String content) {
+        count("put");
+        checkBucket(bucketName);
+        put(key, content);
+        return new PutObjectResult();
+    }
+
+    @Override
+    public ListObjectsV2Result listObjectsV2(ListObjectsV2Request request) {
+        count("list");
+        checkBucket(request.getBucketName());
+        String prefix = request.getPrefix() == null ? "" : request.getPrefix();
+        synchronized (this) {
+            listedPrefixes.add(prefix);
+        }
+        String after = request.getContinuationToken() != null ? request.getContinuationToken() : request.getStartAfter();
+        NavigableMap<String, byte[]> tail = after != null ? objects.tailMap(after, false) : objects;
+        ListObjectsV2Result result = new ListObjectsV2Result();
+        TreeSet<String> commonPrefixes = new TreeSet<>();
+        String lastKey = null;
+        int count = 0;
+        for (Map.Entry<String, byte[]> entry : tail.entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(prefix)) {
+                if (key.compareTo(prefix) > 0) {
+                    break;
+                }
+                continue;
+            }
+            if (count == pageSize) {
+                result.setTruncated(true);
+                result.setNextContinuationToken(lastKey);
+                break;
+            }
+            int delimiter = request.getDelimiter() == null ? -1 : key.indexOf(request.getDelimiter(), prefix.length());
+            if (delimiter >= 0) {
+                commonPrefixes.add(key.substring(0, delimiter + 1));
+            } else {
+                S3ObjectSummary summary = new S3ObjectSummary();
+                summary.setBucketName(bucket);
+                summary.setKey(key);
+                summary.setSize(entry.getValue().length);
+                summary.setETag(getETag(entry.getValue()));
+                result.getObjectSummaries().add(summary);
+            }
+            lastKey = key;
+            count++;
+        }
+        result.setCommonPrefixes(new ArrayList<>(commonPrefixes));
+        result.setKeyCount(count);
+        return result;
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(String bucketName, String key) {
+        count("head");
+        checkBucket(bucketName);
+        byte[] content = objects.get(key);
+        if (content == null) {
+            throw newException(404);
+        }
+        return getMetadata(content, content.length);
+    }
+
+    private static ObjectMetadata getMetadata(byte[] content, long length) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(length);
+        metadata.setHeader(Headers.ETAG, getETag(content));
+        return metadata;
+    }
+
+    @Override
+    public S3Object getObject(GetObjectRequest request) {
+        count("get");
+        checkBucket(request.getBucketName());
+        byte[] content = objects.get(request.getKey());
+        if (content == null) {
+            throw newException(404);
+        }
+        if (!request.getMatchingETagConstraints().isEmpty() && !request.getMatchingETagConstraints().contains(getETag(content))) {
+            return null;
+        }
+        int from = 0;
+        int to = content.length;
+        long[] range = request.getRange();
+        if (range != null) {
+            from = (int) Math.min(range[0], content.length);
+            to = (int) Math.min(range[1] + 1, content.length);
+        }
+        S3Object object = new S3Object();
+        object.setBucketName(bucket);
+        object.setKey(request.getKey());
+        object.setObjectMetadata(getMetadata(content, to - from));
+        object.setObjectContent(new S3ObjectInputStream(new ByteArrayInputStream(content, from, to - from), null));
+        return object;
+    }
+}
@@ -0,0 +1,86 @@
+package service;
+
+import model.TokenState;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TokenStateStoreTest {
+
+    private static final LocalDate DAY = LocalDate.of(2020, 1, 7);
+    private static final int TOKENS = 500;
+
+    private Path file;
+    private Properties appProps;
+    private TimeService timeService;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("token-state", ".bin");
+        Files.delete(file);
+        appProps = new Properties();
+        appProps.setProperty("candle-validation.weekEnd", "sat, sun");
+        appProps.setProperty("candle-validation.continuity.enabled", "true");
+        appProps.setProperty("candle-validation.continuity.state_file", file.toString());
+        appProps.setProperty("candle-validation.continuity.initial_capacity", "16");
+        timeService = new TimeService(appProps);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void statesSurviveResizeAndReopen() throws IOException {
+        try (TokenStateStore store = new TokenStateStore(appProps, timeService)) {
+            for (int i = 0; i < TOKENS; i++) {
+                store.put(getToken(i), getState(i, DAY.minusDays(1)));
+                store.put(getToken(i), getState(i, DAY));
+            }
+            assertStates(store);
+        }
+        //16 records grow to 1024 for 500 tokens
+        assertEquals(16 + 1024 * 144, Files.size(file));
+        try (TokenStateStore store = new TokenStateStore(appProps, timeService)) {
+            assertStates(store);
+            //the day before the previous one is dropped by a new day
+            store.put(getToken(0), getState(0, DAY.plusDays(1)));
+            assertNull(store.get(getToken(0), DAY.minusDays(1)));
+            assertEquals(DAY.toEpochDay(), store.getPreviousTradingDay(getToken(0), DAY.plusDays(1)).getEpochDay());
+        }
+    }
+
+    private void assertStates(TokenStateStore store) {
+        for (int i = 0; i < TOKENS; i++) {
+            for (LocalDate day : new LocalDate[]{DAY.minusDays(1), DAY}) {
+                TokenState state = store.get(getToken(i), day);
+                assertNotNull(getToken(i) + " " + day, state);
+                assertEquals(getState(i, day).toString(), state.toString());
+            }
+            assertNull(store.get(getToken(i), DAY.minusDays(2)));
+            assertEquals(DAY.minusDays(1).toEpochDay(), store.getPreviousTradingDay(getToken(i), DAY).getEpochDay());
+        }
+        assertNull(store.get("missing", DAY));
+    }
+
+    //numeric and hashed keys
+    private static String getToken(int i) {
+        return i % 2 == 0 ? String.valueOf(i) : "NSE_EQ|" + i;
+    }
+
+    private static TokenState getState(int i, LocalDate day) {
+        long start = day.toEpochDay() * 24 * 60 * 60 * 1000;
+        return new TokenState(day.toEpochDay(), 375 + i, start, start + 374 * 60000L, i, i + 1, i - 1, i + 0.5);
+    }
+}
@@ -0,0 +1,115 @@
+package utilities;
+
+import org.junit.Test;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class CronExpressionTest {
+
+    private static final ZoneId KOLKATA = ZoneId.of("Asia/Kolkata");
+    private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+
+    @Test
+    public void nextIsStrictlyAfter() {
+        CronExpression cron = new CronExpression("30 6 * * MON-FRI");
+        assertNext(cron, "2020-02-26T06:30:00+05:30[Asia/Kolkata]", "2020-02-26T06:29:59.999+05:30[Asia/Kolkata]");
+        assertNext(cron, "2020-02-27T06:30+05:30[Asia/Kolkata]", "2020-02-26T06:30+05:30[Asia/Kolkata]");
+        assertNext(cron, "2020-02-27T06:30+05:30[Asia/Kolkata]", "2020-02-26T06:30:30+05:30[Asia/Kolkata]");
+    }
+
+    @Test
+    public void weekEndAndYearEnd() {
+        CronExpression cron = new CronExpression("30 6 * * MON-FRI");
+        //Friday evening -> Monday
+        assertNext(cron, "2020-03-02T06:30+05:30[Asia/Kolkata]", "2020-02-28T18:00+05:30[Asia/Kolkata]");
+        //Thursday 2020-12-31 evening -> Friday 2021-01-01
+        assertNext(cron, "2021-01-01T06:30+05:30[Asia/Kolkata]", "2020-12-31T23:59+05:30[Asia/Kolkata]");
+    }
+
+    @Test
+    public void monthEnds() {
+        CronExpression cron = new CronExpression("0 0 31 * *");
+        assertNext(cron, "2020-03-31T00:00+05:30[Asia/Kolkata]", "2020-01-31T00:00+05:30[Asia/Kolkata]");
+        CronExpression leapDay = new CronExpression("0 12 29 FEB *");
+        assertNext(leapDay, "2024-02-29T12:00+05:30[Asia/Kolkata]", "2020-02-29T12:00+05:30[Asia/Kolkata]");
+    }
+
+    @Test
+    public void sundayIsZeroAndSeven() {
+        //2020-03-01 is a Sunday
+        String expected = "2020-03-01T09:00+05:30[Asia/Kolkata]";
+        assertNext(new CronExpression("0 9 * * 0"), expected, "2020-02-26T00:00+05:30[Asia/Kolkata]");
+        assertNext(new CronExpression("0 9 * * 7"), expected, "2020-02-26T00:00+05:30[Asia/Kolkata]");
+        assertNext(new CronExpression("0 9 * * sun"), expected, "2020-02-26T00:00+05:30[Asia/Kolkata]");
+    }
+
+    @Test
+    public void restrictedDayFieldsMatchEither() {
+        //the 1st or a Monday: Wednesday 2020-04-01, then Monday 2020-04-06
+        CronExpression cron = new CronExpression("0 8 1 * MON");
+        assertNext(cron, "2020-04-01T08:00+05:30[Asia/Kolkata]", "2020-03-31T00:00+05:30[Asia/Kolkata]");
+        assertNext(cron, "2020-04-06T08:00+05:30[Asia/Kolkata]", "2020-04-01T08:00+05:30[Asia/Kolkata]");
+        //a day of month with * for day of week matches that day only
+        assertNext(new CronExpression("0 8 15 * *"), "2020-04-15T08:00+05:30[Asia/Kolkata]", "2020-04-01T08:00+05:30[Asia/Kolkata]");
+    }
+
+    @Test
+    public void stepsAndLists() {
+        CronExpression cron = new CronExpression("*/20 9-10,15 * * *");
+        assertNext(cron, "2020-02-26T09:20+05:30[Asia/Kolkata]", "2020-02-26T09:00+05:30[Asia/Kolkata]");
+        assertNext(cron, "2020-02-26T15:00+05:30[Asia/Kolkata]", "2020-02-26T10:40+05:30[Asia/Kolkata]");
+        assertNext(new CronExpression("5-50/15 * * * *"), "2020-02-26T10:05+05:30[Asia/Kolkata]", "2020-02-26T09:50+05:30[Asia/Kolkata]");
+    }
+
+    @Test
+    public void timeInDstGapFiresAfterTheGap() {
+        //2021-03-14 02:00-03:00 doesn't exist in New York
+        CronExpression cron = new CronExpression("30 2 * * *");
+        ZonedDateTime next = cron.next(ZonedDateTime.of(2021, 3, 14, 0, 0, 0, 0, NEW_YORK));
+        assertEquals(ZonedDateTime.parse("2021-03-14T03:30-04:00[America/New_York]"), next);
+        assertEquals(ZonedDateTime.parse("2021-03-15T02:30-04:00[America/New_York]"), cron.next(next));
+    }
+
+    @Test
+    public void timeInDstOverlapFiresOnce() {
+        //2021-11-07 01:00-02:00 happens twice in New York
+        CronExpression cron = new CronExpression("30 1 * * *");
+        ZonedDateTime next = cron.next(ZonedDateTime.of(2021, 11, 7, 0, 0, 0, 0, NEW_YORK));
+        assertEquals(ZonedDateTime.parse("2021-11-07T01:30-04:00[America/New_York]"), next);
+        assertEquals(ZonedDateTime.parse("2021-11-08T01:30-05:00[America/New_York]"), cron.next(next));
+        //every 20 minutes keeps going through the second 01:xx without repeating the first one
+        CronExpression often = new CronExpression("*/20 * * * *");
+        ZonedDateTime secondOne = ZonedDateTime.parse("2021-11-07T01:00-05:00[America/New_York]");
+        assertEquals(ZonedDateTime.parse("2021-11-07T01:20-05:00[America/New_York]"), often.next(secondOne));
+    }
+
+    @Test
+    public void neverMatching() {
+        try {
+            new CronExpression("0 0 30 2 *").next(ZonedDateTime.now(KOLKATA));
+            fail("February 30th matches");
+        } catch (IllegalStateException e) {
+            assertEquals("Cron expression \"0 0 30 2 *\" never matches", e.getMessage());
+        }
+    }
+
+    @Test
+    public void wrongExpressions() {
+        for (String expression : new String[]{"0 0 * *", "60 0 * * *", "0 24 * * *", "0 0 0 * *", "0 0 * 13 *", "*/0 * * * *", "5-1 * * * *", "0 0 * * FOO"}) {
+            try {
+                new CronExpression(expression);
+                fail("\"" + expression + "\" is accepted");
+            } catch (IllegalArgumentException e) {
+                //expected, NumberFormatException is one too
+            }
+        }
+    }
+
+    private static void assertNext(CronExpression cron, String expected, String after) {
+        assertEquals(ZonedDateTime.parse(expected), cron.next(ZonedDateTime.parse(after)));
+    }
+}